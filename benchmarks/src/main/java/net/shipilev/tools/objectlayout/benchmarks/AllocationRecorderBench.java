@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import net.shipilev.tools.objectlayout.alloc.AllocationRecorder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the allocation profiling: the "recorded" benchmarks make the same allocations
+ * as "plain", with the recorder calls the instrumented code makes. Sampling 0 leaves the calls
+ * in, but records nothing; the difference to "plain" at the other settings is the cost of the
+ * profiling per allocation. The "contended" benchmarks do the same from all the CPUs at once,
+ * recording to the same sites: their difference to the single-threaded ones is the cost of the
+ * shared sampler stripes and site counters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AllocationRecorderBench {
+
+    @Param({"0", "1", "64", "1024"})
+    private int sampling;
+
+    private int objectSite;
+    private int arraySite;
+    private int length;
+
+    @Setup
+    public void setup() {
+        objectSite = AllocationRecorder.registerInstance(Workloads.L0.class.getName(), "bench", getClass().getClassLoader());
+        arraySite = AllocationRecorder.registerArray("[J", 8, "bench");
+        AllocationRecorder.setSampling(sampling);
+        length = 16;
+    }
+
+    @Benchmark
+    public Object plainObject() {
+        return new Workloads.L0();
+    }
+
+    @Benchmark
+    public Object recordedObject() {
+        Object o = new Workloads.L0();
+        AllocationRecorder.recordNew(objectSite);
+        return o;
+    }
+
+    @Benchmark
+    public Object plainArray() {
+        return new long[length];
+    }
+
+    @Benchmark
+    public Object recordedArray() {
+        int len = length;
+        AllocationRecorder.recordArray(len, arraySite);
+        return new long[len];
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object contendedPlainObject() {
+        return new Workloads.L0();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object contendedRecordedObject() {
+        Object o = new Workloads.L0();
+        AllocationRecorder.recordNew(objectSite);
+        return o;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object contendedPlainArray() {
+        return new long[length];
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object contendedRecordedArray() {
+        int len = length;
+        AllocationRecorder.recordArray(len, arraySite);
+        return new long[len];
+    }
+
+}
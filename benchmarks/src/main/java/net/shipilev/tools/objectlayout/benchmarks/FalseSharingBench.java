@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import net.shipilev.tools.objectlayout.VMSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confirms the contention predicted by CacheLineAnalyzer: two threads write two fields
+ * of the same instance in the "shared" group, and of their own instances in the "separate"
+ * group. The fields on the same cache line make "shared" much slower than "separate".
+ * Point it at any class with a no-args layout, the constructor is not called:
+ * <pre>
+ *   java -jar target/benchmarks.jar FalseSharingBench -p target=my.Queue -p first=head -p second=tail
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FalseSharingBench {
+
+    @Param({"net.shipilev.tools.objectlayout.benchmarks.Workloads$Counters",
+            "net.shipilev.tools.objectlayout.benchmarks.Workloads$PaddedCounters"})
+    private String target;
+
+    @Param({"first"})
+    private String first;
+
+    @Param({"second"})
+    private String second;
+
+    private Class<?> klass;
+    private FieldWriter firstWriter;
+    private FieldWriter secondWriter;
+
+    @Setup
+    public void setup() throws Exception {
+        klass = Class.forName(target);
+        firstWriter = new FieldWriter(findField(klass, first));
+        secondWriter = new FieldWriter(findField(klass, second));
+    }
+
+    private static Field findField(Class<?> klass, String name) throws NoSuchFieldException {
+        for (Class<?> k = klass; k != null; k = k.getSuperclass()) {
+            try {
+                return k.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                // try the superclass
+            }
+        }
+        throw new NoSuchFieldException(klass.getName() + "." + name);
+    }
+
+    @State(Scope.Group)
+    public static class SharedTarget {
+        private Object instance;
+
+        @Setup
+        public void setup(FalseSharingBench bench) throws Exception {
+            instance = VMSupport.U.allocateInstance(bench.klass);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SeparateTarget {
+        private Object instance;
+
+        @Setup
+        public void setup(FalseSharingBench bench) throws Exception {
+            instance = VMSupport.U.allocateInstance(bench.klass);
+        }
+    }
+
+    @Benchmark
+    @Group("shared")
+    @GroupThreads(1)
+    public void sharedFirst(SharedTarget t) {
+        firstWriter.write(t.instance);
+    }
+
+    @Benchmark
+    @Group("shared")
+    @GroupThreads(1)
+    public void sharedSecond(SharedTarget t) {
+        secondWriter.write(t.instance);
+    }
+
+    @Benchmark
+    @Group("separate")
+    @GroupThreads(1)
+    public void separateFirst(SeparateTarget t) {
+        firstWriter.write(t.instance);
+    }
+
+    @Benchmark
+    @Group("separate")
+    @GroupThreads(1)
+    public void separateSecond(SeparateTarget t) {
+        secondWriter.write(t.instance);
+    }
+
+    /**
+     * Volatile stores to the field of any type; the values do not matter.
+     */
+    private static class FieldWriter {
+        private final long offset;
+        private final Class<?> type;
+
+        FieldWriter(Field field) {
+            this.offset = VMSupport.U.objectFieldOffset(field);
+            this.type = field.getType();
+        }
+
+        void write(Object o) {
+            if (!type.isPrimitive()) {
+                VMSupport.U.putObjectVolatile(o, offset, this);
+                return;
+            }
+            switch (VMSupport.sizeOfType(type)) {
+                case 1:  VMSupport.U.putByteVolatile(o, offset, (byte) 1);   break;
+                case 2:  VMSupport.U.putShortVolatile(o, offset, (short) 1); break;
+                case 4:  VMSupport.U.putIntVolatile(o, offset, 1);           break;
+                default: VMSupport.U.putLongVolatile(o, offset, 1L);         break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import net.shipilev.tools.objectlayout.ObjectGraphWalker;
+import net.shipilev.tools.objectlayout.ObjectLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashMapGraphBench {
+
+    @Param({"1000000"})
+    private int size;
+
+    private Map<Integer, String> map;
+    private List<Object> nodes;
+
+    @Setup
+    public void setup() {
+        map = new HashMap<Integer, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(i, "value" + i);
+        }
+
+        nodes = new ArrayList<Object>();
+        for (Map.Entry<Integer, String> e : map.entrySet()) {
+            nodes.add(e);
+            nodes.add(e.getKey());
+            nodes.add(e.getValue());
+        }
+    }
+
+    @Benchmark
+    public Object walk() {
+        return new ObjectGraphWalker(map).getClassSizes();
+    }
+
+    @Benchmark
+    public long sizeOf() throws Exception {
+        long size = 0;
+        for (Object o : nodes) {
+            size += ObjectLayout.sizeOf(o);
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import net.shipilev.tools.objectlayout.util.Multiset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the primitive Multiset with the original boxed one, on the class histogram
+ * workload the walker produces: a stream of increments over a handful of classes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultisetBench {
+
+    private static final int OPS = 1024;
+
+    private static final Class<?>[] CLASSES = {
+            Object.class, String.class, Integer.class, Long.class, Double.class,
+            Object[].class, byte[].class, char[].class, int[].class, long[].class,
+            java.util.HashMap.class, java.util.ArrayList.class, java.util.LinkedList.class,
+            java.util.TreeMap.class, java.util.HashSet.class, java.util.Date.class,
+    };
+
+    @Param({"4", "16"})
+    private int distinct;
+
+    private Class<?>[] stream;
+    private Multiset<Class<?>> primitive;
+    private BoxedMultiset<Class<?>> boxed;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        stream = new Class<?>[OPS];
+        for (int i = 0; i < OPS; i++) {
+            stream[i] = CLASSES[r.nextInt(distinct)];
+        }
+        primitive = new Multiset<Class<?>>();
+        boxed = new BoxedMultiset<Class<?>>();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public Object addPrimitive() {
+        Multiset<Class<?>> m = primitive;
+        for (Class<?> k : stream) {
+            m.add(k, 24);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public Object addBoxed() {
+        BoxedMultiset<Class<?>> m = boxed;
+        for (Class<?> k : stream) {
+            m.add(k, 24);
+        }
+        return m;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import net.shipilev.tools.objectlayout.ObjectGraphWalker;
+import net.shipilev.tools.objectlayout.ParallelObjectGraphWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalability of the parallel walker. Compare the "parallel" scores across the
+ * thread counts against the single-threaded "sequential" baseline. The "map" is
+ * the HashMap of small arrays; the "array" is one huge Object[] of small arrays,
+ * which only scales if its slices are shared between the workers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class ParallelWalkBench {
+
+    @Param({"1000000"})
+    private int size;
+
+    @Param({"1", "2", "4", "8", "16"})
+    private int threads;
+
+    @Param({"map", "array"})
+    private String shape;
+
+    private Object root;
+
+    @Setup
+    public void setup() {
+        if (shape.equals("map")) {
+            Map<Integer, Object> map = new HashMap<Integer, Object>();
+            for (int i = 0; i < size; i++) {
+                map.put(i, new Object[]{"value" + i, new int[i % 16]});
+            }
+            root = map;
+        } else {
+            Object[] array = new Object[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = new Object[]{"value" + i, new int[i % 16]};
+            }
+            root = array;
+        }
+    }
+
+    @Benchmark
+    public Object sequential() {
+        return new ObjectGraphWalker(root).getClassSizes();
+    }
+
+    @Benchmark
+    public Object parallel() {
+        return new ParallelObjectGraphWalker(root, threads).getClassSizes();
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import net.shipilev.tools.objectlayout.ObjectLayout;
+import net.shipilev.tools.objectlayout.VMSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-object operations: sizing, layout analysis and address reads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SizeOfBench {
+
+    private Object plain;
+    private Object deep;
+    private Object[] objectArray;
+    private long[] longArray;
+    private PrintStream nullStream;
+
+    @Setup
+    public void setup() {
+        plain = new HashMap<Object, Object>();
+        deep = new Workloads.L7();
+        objectArray = new Object[1000];
+        longArray = new long[1000];
+        nullStream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // discard
+            }
+        });
+    }
+
+    @Benchmark
+    public long sizeOfPlain() throws Exception {
+        return ObjectLayout.sizeOf(plain);
+    }
+
+    @Benchmark
+    public long sizeOfHierarchy() throws Exception {
+        return ObjectLayout.sizeOf(deep);
+    }
+
+    @Benchmark
+    public long sizeOfObjectArray() throws Exception {
+        return ObjectLayout.sizeOf(objectArray);
+    }
+
+    @Benchmark
+    public long sizeOfPrimitiveArray() throws Exception {
+        return ObjectLayout.sizeOf(longArray);
+    }
+
+    @Benchmark
+    public int analyzeHierarchy() throws Exception {
+        return ObjectLayout.analyze(nullStream, Workloads.L7.class);
+    }
+
+    @Benchmark
+    public long addressOf() {
+        return VMSupport.addressOf(plain);
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.benchmarks;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Standard object graphs for the benchmarks.
+ */
+public class Workloads {
+
+    public static Object create(String name, int size) {
+        switch (name) {
+            case "linkedList":
+                return linkedList(size);
+            case "hashMap":
+                return hashMap(size);
+            case "objectArray":
+                return objectArray(size);
+            case "primitiveArrays":
+                return primitiveArrays(size);
+            case "hierarchy":
+                return hierarchy(size);
+            default:
+                throw new IllegalArgumentException("Unknown workload: " + name);
+        }
+    }
+
+    /**
+     * Deep graph: every node is one level deeper than the previous one.
+     */
+    public static List<Integer> linkedList(int size) {
+        List<Integer> list = new LinkedList<Integer>();
+        for (int i = 0; i < size; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    /**
+     * Wide graph: all the entries hang off a single table array.
+     */
+    public static Map<Integer, String> hashMap(int size) {
+        Map<Integer, String> map = new HashMap<Integer, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(i, "value" + i);
+        }
+        return map;
+    }
+
+    /**
+     * Single large reference array with small leaf objects.
+     */
+    public static Object[] objectArray(int size) {
+        Object[] array = new Object[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = new Object();
+        }
+        return array;
+    }
+
+    /**
+     * Primitive arrays of all kinds, which need no further walking.
+     */
+    public static Object[] primitiveArrays(int size) {
+        Object[] array = new Object[size];
+        for (int i = 0; i < size; i++) {
+            switch (i % 8) {
+                case 0: array[i] = new boolean[i % 100]; break;
+                case 1: array[i] = new byte[i % 100]; break;
+                case 2: array[i] = new short[i % 100]; break;
+                case 3: array[i] = new char[i % 100]; break;
+                case 4: array[i] = new int[i % 100]; break;
+                case 5: array[i] = new float[i % 100]; break;
+                case 6: array[i] = new long[i % 100]; break;
+                default: array[i] = new double[i % 100]; break;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Instances of the deep class hierarchy, with the fields of every kind at every level.
+     */
+    public static Object[] hierarchy(int size) {
+        Object[] array = new Object[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = new L7();
+        }
+        return array;
+    }
+
+    public static class L0 { long l0; int i0; Object o0 = new Object(); byte b0; }
+    public static class L1 extends L0 { long l1; int i1; Object o1; byte b1; }
+    public static class L2 extends L1 { long l2; int i2; Object o2; byte b2; }
+    public static class L3 extends L2 { long l3; int i3; Object o3 = new Object(); byte b3; }
+    public static class L4 extends L3 { long l4; int i4; Object o4; byte b4; }
+    public static class L5 extends L4 { long l5; int i5; Object o5; byte b5; }
+    public static class L6 extends L5 { long l6; int i6; Object o6 = new Object(); byte b6; }
+    public static class L7 extends L6 { long l7; int i7; Object o7; byte b7; }
+
+    /**
+     * Two counters on the same cache line.
+     */
+    public static class Counters { volatile long first; volatile long second; }
+
+    /**
+     * Two counters a cache line apart.
+     */
+    public static class PaddedCounters { volatile long first; long p1, p2, p3, p4, p5, p6, p7; volatile long second; }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+/**
+ * Visited set keyed by the object addresses, kept in the open-addressing table off-heap.
+ * The table is at most half full, and every slot is 8 bytes, which makes at least 16 bytes
+ * per object, and 16 to 32 bytes in the steady state, none of them on Java heap. Growing
+ * the table temporarily needs both the old and the new table, that is, up to 48 bytes per object.
+ * <p>
+ * The addresses are only stable while no GC happens, so the set becomes unreliable
+ * as soon as any GC runs after the first object is added. The walker checks the set as it
+ * goes, and switches to {@link IdentityVisitedSet} as soon as it notices the GC.
+ */
+public class AddressVisitedSet implements VisitedSet {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final Object[] holder = new Object[1];
+    private long gcCount;
+
+    private long table;
+    private long capacity;
+    private long size;
+
+    public AddressVisitedSet() {
+        capacity = INITIAL_CAPACITY;
+        table = allocate(capacity);
+    }
+
+    private static long allocate(long capacity) {
+        long bytes = capacity * 8;
+        long t = VMSupport.U.allocateMemory(bytes);
+        VMSupport.U.setMemory(t, bytes, (byte) 0);
+        return t;
+    }
+
+    @Override
+    public boolean add(Object o) {
+        if (table == 0) {
+            throw new IllegalStateException("Set is already released");
+        }
+
+        // the GCs before the first address is taken do not matter
+        if (size == 0) {
+            gcCount = VMSupport.gcCount();
+        }
+
+        // non-null objects never have zero address, so zero marks the empty slot
+        long address = VMSupport.addressOf(o, holder);
+        if (insert(table, capacity, address)) {
+            if (++size > capacity / 2) {
+                grow();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean insert(long table, long capacity, long address) {
+        long mask = capacity - 1;
+        long idx = mix(address) & mask;
+        while (true) {
+            long slot = table + idx * 8;
+            long v = VMSupport.U.getLong(slot);
+            if (v == 0) {
+                VMSupport.U.putLong(slot, address);
+                return true;
+            }
+            if (v == address) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long newCapacity = capacity * 2;
+        long newTable = allocate(newCapacity);
+        for (long i = 0; i < capacity; i++) {
+            long v = VMSupport.U.getLong(table + i * 8);
+            if (v != 0) {
+                insert(newTable, newCapacity, v);
+            }
+        }
+        VMSupport.U.freeMemory(table);
+        table = newTable;
+        capacity = newCapacity;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public boolean isReliable() {
+        return size == 0 || VMSupport.gcCount() == gcCount;
+    }
+
+    @Override
+    public void release() {
+        if (table != 0) {
+            VMSupport.U.freeMemory(table);
+            table = 0;
+        }
+    }
+
+}
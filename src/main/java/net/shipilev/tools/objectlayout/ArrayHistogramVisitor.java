@@ -0,0 +1,193 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the arrays per array class, with their length distribution in power-of-two
+ * buckets, and the null slots in the reference arrays. The null slots are the unused
+ * capacity, e.g. in HashMap tables and ArrayList backing arrays.
+ */
+public class ArrayHistogramVisitor implements ObjectVisitor {
+
+    /**
+     * Bucket 0 is for the empty arrays; bucket N, for the lengths in [2^(N-1), 2^N).
+     */
+    public static final int BUCKETS = 33;
+
+    private final Map<Class<?>, ArrayStats> stats = new HashMap<Class<?>, ArrayStats>();
+
+    @Override
+    public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+        if (klass.isArray()) {
+            ArrayStats s = stats.get(klass);
+            if (s == null) {
+                s = new ArrayStats(klass);
+                stats.put(klass, s);
+            }
+            s.add(obj, size);
+        }
+        return Action.CONTINUE;
+    }
+
+    /**
+     * @return per-class statistics, the largest total size first
+     */
+    public List<ArrayStats> getStats() {
+        List<ArrayStats> result = new ArrayList<ArrayStats>(stats.values());
+        Collections.sort(result, new Comparator<ArrayStats>() {
+            @Override
+            public int compare(ArrayStats o1, ArrayStats o2) {
+                return (o1.size > o2.size) ? -1 : ((o1.size == o2.size) ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    public static int bucketOf(int length) {
+        return 32 - Integer.numberOfLeadingZeros(length);
+    }
+
+    public void print(PrintStream pw) {
+        for (ArrayStats s : getStats()) {
+            pw.print(s.getClassName() + ": " + s.getCount() + " arrays, " + s.getSize() + " bytes");
+            if (!s.isPrimitive()) {
+                pw.print(", " + s.getNullSlots() + " null slots (" + s.getWastedSize() + " bytes)");
+            }
+            pw.println();
+
+            pw.printf(" %21s %10s %12s %12s\n", "length", "count", "size", "null-slots");
+            for (int b = 0; b < BUCKETS; b++) {
+                if (s.bucketCounts[b] == 0) continue;
+                String range;
+                if (b == 0) {
+                    range = "0";
+                } else if (b == 1) {
+                    range = "1";
+                } else {
+                    range = (1L << (b - 1)) + "-" + ((1L << b) - 1);
+                }
+                pw.printf(" %21s %10d %12d %12s\n", range, s.bucketCounts[b], s.bucketSizes[b],
+                        s.isPrimitive() ? "" : String.valueOf(s.bucketNulls[b]));
+            }
+            pw.println();
+        }
+    }
+
+    public static class ArrayStats {
+        private final String className;
+        private final boolean primitive;
+        private final int indexScale;
+        private final long[] bucketCounts = new long[BUCKETS];
+        private final long[] bucketSizes = new long[BUCKETS];
+        private final long[] bucketNulls = new long[BUCKETS];
+        private long count;
+        private long size;
+        private long elements;
+        private long nullSlots;
+
+        ArrayStats(Class<?> klass) {
+            ArrayLayout layout = ArrayLayout.of(klass);
+            className = klass.getName();
+            primitive = layout.isPrimitive();
+            indexScale = layout.getIndexScale();
+        }
+
+        void add(Object array, long size) {
+            int length = Array.getLength(array);
+            int b = bucketOf(length);
+
+            count++;
+            this.size += size;
+            elements += length;
+            bucketCounts[b]++;
+            bucketSizes[b] += size;
+
+            if (!primitive) {
+                int nulls = 0;
+                for (Object e : (Object[]) array) {
+                    if (e == null) nulls++;
+                }
+                nullSlots += nulls;
+                bucketNulls[b] += nulls;
+            }
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public boolean isPrimitive() {
+            return primitive;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return total length of all the arrays
+         */
+        public long getElements() {
+            return elements;
+        }
+
+        /**
+         * @return null elements in the reference arrays; always zero for the primitive arrays
+         */
+        public long getNullSlots() {
+            return nullSlots;
+        }
+
+        /**
+         * @return bytes taken by the null elements
+         */
+        public long getWastedSize() {
+            return nullSlots * indexScale;
+        }
+
+        /**
+         * @param bucket bucket, see {@link #bucketOf(int)}
+         * @return number of arrays with the lengths in the bucket
+         */
+        public long getBucketCount(int bucket) {
+            return bucketCounts[bucket];
+        }
+
+        public long getBucketSize(int bucket) {
+            return bucketSizes[bucket];
+        }
+    }
+
+}
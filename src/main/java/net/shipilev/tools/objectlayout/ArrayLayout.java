@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.ClassCache;
+
+import java.lang.reflect.Array;
+
+public class ArrayLayout {
+
+    private static final ClassCache<ArrayLayout> CACHE = new ClassCache<ArrayLayout>() {
+        @Override
+        protected ArrayLayout compute(Class<?> klass) {
+            if (!klass.isArray()) {
+                throw new IllegalArgumentException("Not an array class: " + klass.getName());
+            }
+            return new ArrayLayout(klass);
+        }
+    };
+
+    private final int baseOffset;
+    private final int indexScale;
+    private final boolean primitive;
+
+    private ArrayLayout(Class<?> klass) {
+        baseOffset = VMSupport.U.arrayBaseOffset(klass);
+        indexScale = VMSupport.U.arrayIndexScale(klass);
+        primitive = klass.getComponentType().isPrimitive();
+    }
+
+    public static ArrayLayout of(Class<?> klass) {
+        return CACHE.get(klass);
+    }
+
+    /**
+     * Offset of the first element, which is also the header size.
+     */
+    public int getBaseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * Element size.
+     */
+    public int getIndexScale() {
+        return indexScale;
+    }
+
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+    /**
+     * Array size estimate for the given length, already aligned.
+     */
+    public long sizeOf(int length) {
+        return VMSupport.align(baseOffset + (long) length * indexScale);
+    }
+
+    /**
+     * Array size estimate, already aligned.
+     */
+    public long sizeOf(Object array) {
+        return sizeOf(Array.getLength(array));
+    }
+
+}
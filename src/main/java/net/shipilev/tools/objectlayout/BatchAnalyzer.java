@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.output.ReportBuffer;
+import net.shipilev.tools.objectlayout.output.ReportFormat;
+import net.shipilev.tools.objectlayout.output.ReportWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyzes many classes in one VM, with the worker pool. The per-class reports are
+ * collected into one combined report, in the class name order. The failing classes
+ * are reported and counted, and do not abort the run.
+ */
+public class BatchAnalyzer {
+
+    public enum Mode {
+        LAYOUT,
+        GRAPH,
+    }
+
+    private final Mode mode;
+    private final int threads;
+    private final ClassLoader loader;
+
+    public BatchAnalyzer(Mode mode, int threads, ClassLoader loader) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Should have at least one thread: " + threads);
+        }
+        this.mode = mode;
+        this.threads = threads;
+        this.loader = loader;
+    }
+
+    /**
+     * Runs the batch from the command line arguments, which are any mix of:
+     * <ul>
+     * <li>class names;</li>
+     * <li>{@code @file}: file with one class name per line;</li>
+     * <li>{@code package.prefix.*}: all classes in the package and its subpackages on the classpath;</li>
+     * <li>{@code *}: all classes on the classpath;</li>
+     * <li>jar file or class directory: all classes in it, the jar is loaded in addition to the classpath;</li>
+     * <li>{@code -threads N}: the number of workers, defaults to the number of CPUs.</li>
+     * </ul>
+     */
+    public static void main(Mode mode, ReportFormat format, String... args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Set<String> names = new TreeSet<String>();
+        List<URL> urls = new ArrayList<URL>();
+        String classpath = System.getProperty("java.class.path");
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.startsWith("@")) {
+                readClassList(new File(arg.substring(1)), names);
+            } else if (arg.equals("*")) {
+                ClassScanner.scanClasspath(classpath, "", names);
+            } else if (arg.endsWith(".*")) {
+                ClassScanner.scanClasspath(classpath, arg.substring(0, arg.length() - 1), names);
+            } else if (arg.endsWith(".jar") || new File(arg).isDirectory()) {
+                File f = new File(arg);
+                if (!f.exists()) {
+                    throw new IllegalArgumentException("No such file: " + arg);
+                }
+                ClassScanner.scan(f, "", names);
+                urls.add(f.toURI().toURL());
+            } else {
+                names.add(arg);
+            }
+        }
+
+        ClassLoader loader = BatchAnalyzer.class.getClassLoader();
+        if (!urls.isEmpty()) {
+            loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), loader);
+        }
+
+        // keep the machine-readable output clean
+        PrintStream log = format.isText() ? System.out : System.err;
+
+        VMSupport.detect(log);
+        new BatchAnalyzer(mode, threads, loader).run(format.openStandardOutput(), log, new ArrayList<String>(names));
+    }
+
+    private static void readClassList(File file, Set<String> names) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    names.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Analyzes the classes, and writes the combined report.
+     *
+     * @param out combined report
+     * @param log where to print the summary
+     * @param classNames classes to analyze
+     * @return number of classes failed to analyze
+     */
+    public int run(ReportWriter out, PrintStream log, List<String> classNames) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ReportBuffer>> results = new ArrayList<Future<ReportBuffer>>();
+            for (final String name : classNames) {
+                results.add(pool.submit(new Callable<ReportBuffer>() {
+                    @Override
+                    public ReportBuffer call() throws Exception {
+                        return analyze(name);
+                    }
+                }));
+            }
+
+            List<String> failures = new ArrayList<String>();
+            int skipped = 0;
+
+            // results are written in order, while the pool is still working on the later classes
+            for (int c = 0; c < classNames.size(); c++) {
+                String name = classNames.get(c);
+                try {
+                    ReportBuffer report = results.get(c).get();
+                    if (report != null) {
+                        report.replay(out);
+                    } else {
+                        skipped++;
+                    }
+                } catch (ExecutionException e) {
+                    String message = describe(e.getCause());
+                    out.error(name, message);
+                    failures.add(name + ": " + message);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            out.flush();
+
+            log.println();
+            log.printf("Analyzed %d classes, skipped %d, failed %d\n",
+                    classNames.size() - skipped - failures.size(), skipped, failures.size());
+            for (String failure : failures) {
+                log.println("  " + failure);
+            }
+
+            return failures.size();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return report for the class, or null if the class had nothing to analyze
+     */
+    private ReportBuffer analyze(String name) throws Exception {
+        // do not run the static initializers unless the instance is needed
+        Class<?> klass = Class.forName(name, false, loader);
+        if (klass.isInterface() || klass.isPrimitive()) {
+            return null;
+        }
+
+        ReportBuffer report = new ReportBuffer();
+        switch (mode) {
+            case LAYOUT:
+                ObjectLayout.analyze(report, klass);
+                break;
+            case GRAPH:
+                if (Modifier.isAbstract(klass.getModifiers())) {
+                    return null;
+                }
+                ObjectGraph.analyzeInstance(report, klass);
+                break;
+            default:
+                throw new IllegalStateException("Unknown mode: " + mode);
+        }
+        return report;
+    }
+
+    private static String describe(Throwable t) {
+        if (t instanceof Exception) {
+            return ObjectGraph.describe((Exception) t);
+        }
+        return t.toString();
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.IdentityIntMap;
+import net.shipilev.tools.objectlayout.util.ObjectBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Walks the object graph breadth-first, numbering the objects in the discovery order,
+ * for the indexes and the snapshots which need the node ids. The walk reports the nodes
+ * and the edges to the {@link Listener}, and interns the class and field names.
+ * <p>
+ * When there is more than one root, node 0 is the synthetic "(roots)" node, with the
+ * "[]" edges to all the roots. The roots are always taken in, the filter only applies
+ * to the discovered objects.
+ * <p>
+ * The walk takes the {@link WalkLimits}, except for the subtree budget, which has no meaning
+ * for the breadth-first order. Once the node, byte or time limit is reached, no more objects
+ * are discovered; the objects discovered so far are still expanded if the edges are recorded,
+ * with the edges between them.
+ */
+class BreadthFirstWalker {
+
+    interface Listener<X extends Exception> {
+        /**
+         * @param id node id, ids go in order from 0
+         * @param o discovered object, null for the synthetic roots node
+         * @param classId interned class name, see {@link #getClassNames()}
+         * @param size object size
+         * @param parent parent node in the breadth-first tree, -1 for node 0
+         * @param field interned field name the node was discovered through, see {@link #getFieldNames()}
+         */
+        void onNode(int id, Object o, int classId, long size, int parent, int field) throws X;
+
+        /**
+         * Called before the edges of the node, for every node in the id order.
+         */
+        void onExpand(int id) throws X;
+
+        void onEdge(int from, int to) throws X;
+    }
+
+    // the time limit is checked once per this many scanned references
+    private static final int DEADLINE_CHECK_MASK = 0xFFF;
+
+    private final ObjectFilter filter;
+    private final WalkLimits limits;
+    private final boolean recordEdges;
+
+    private final IdentityIntMap ids = new IdentityIntMap();
+    private final ObjectBuffer nodes = new ObjectBuffer();
+
+    // per class: class id, then the ids of the reference fields
+    private final Map<Class<?>, int[]> classInfos = new HashMap<Class<?>, int[]>();
+    private final List<String> classNames = new ArrayList<String>();
+    private final Map<String, Integer> fieldIds = new HashMap<String, Integer>();
+    private final List<String> fieldNames = new ArrayList<String>();
+
+    private long deadline;
+    private long scannedSlots;
+    private long walkedNodes;
+    private long walkedBytes;
+    private String limitReached;
+
+    BreadthFirstWalker(ObjectFilter filter) {
+        this(filter, null, true);
+    }
+
+    /**
+     * @param filter filter for the objects other than the roots
+     * @param limits limits for the walk, or null for none
+     * @param recordEdges false, if the listener does not need {@link Listener#onEdge(int, int)}
+     */
+    BreadthFirstWalker(ObjectFilter filter, WalkLimits limits, boolean recordEdges) {
+        this.filter = filter;
+        this.limits = limits;
+        this.recordEdges = recordEdges;
+    }
+
+    <X extends Exception> void walk(Object[] roots, Listener<X> listener) throws X {
+        deadline = (limits == null || limits.getMaxTime() == Long.MAX_VALUE) ?
+                Long.MAX_VALUE : System.nanoTime() + limits.getMaxTime();
+
+        // depth of the nodes being expanded; the synthetic node is above the roots
+        int depth;
+        if (roots.length == 1 && roots[0] != null) {
+            discover(roots[0], -1, -1, listener);
+            depth = 0;
+        } else {
+            addNode(null, classInfo(null)[0], 0, -1, -1, listener);
+            depth = -1;
+        }
+        int levelEnd = nodes.size();
+
+        // nodes are discovered in order, so expanding them in the id order is the BFS,
+        // and the edges come out already grouped by the source node
+        for (int id = 0; id < nodes.size(); id++) {
+            if (limitReached != null && !recordEdges) {
+                return;
+            }
+            if (id == levelEnd) {
+                depth++;
+                levelEnd = nodes.size();
+            }
+            boolean deeper = limits == null || depth < limits.getMaxDepth();
+
+            listener.onExpand(id);
+
+            Object o = nodes.get(id);
+            if (o == null) {
+                int field = fieldId(ObjectPathIndex.ARRAY_ELEMENT);
+                for (Object root : roots) {
+                    if (root == null) continue;
+                    int to = ids.get(root);
+                    if (to < 0) {
+                        if (limitReached != null) continue;
+                        to = discover(root, id, field, listener);
+                    }
+                    if (recordEdges) {
+                        listener.onEdge(id, to);
+                    }
+                }
+                continue;
+            }
+
+            Class<?> klass = o.getClass();
+            boolean[] pruned = (limits == null) ? null : limits.getPrunedFields(klass);
+            if (klass.isArray()) {
+                if (!klass.getComponentType().isPrimitive() && (pruned == null || !pruned[0])) {
+                    int field = fieldId(ObjectPathIndex.ARRAY_ELEMENT);
+                    for (Object ref : (Object[]) o) {
+                        link(id, ref, field, deeper, listener);
+                    }
+                }
+            } else {
+                long[] offsets = ClassLayout.of(klass).getReferenceOffsets();
+                int[] info = classInfo(klass);
+                for (int c = 0; c < offsets.length; c++) {
+                    if (pruned == null || !pruned[c]) {
+                        link(id, VMSupport.U.getObject(o, offsets[c]), info[c + 1], deeper, listener);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param deeper true, if the new objects are still within the max depth
+     */
+    private <X extends Exception> void link(int from, Object ref, int field, boolean deeper,
+                                            Listener<X> listener) throws X {
+        if (deadline != Long.MAX_VALUE && limitReached == null &&
+                (++scannedSlots & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline) {
+            limitReached = "max time (" + limits.getMaxTime() + " ns)";
+        }
+        if (ref == null) return;
+        int id = ids.get(ref);
+        if (id < 0) {
+            if (!deeper || limitReached != null || !filter.accept(ref)) return;
+            if (limits != null && limits.isPrunedClass(ref.getClass())) return;
+            id = discover(ref, from, field, listener);
+        }
+        if (recordEdges) {
+            listener.onEdge(from, id);
+        }
+    }
+
+    private <X extends Exception> int discover(Object o, int parent, int field, Listener<X> listener) throws X {
+        long size;
+        try {
+            size = ObjectLayout.sizeOf(o);
+        } catch (Exception e) {
+            size = 0;
+        }
+
+        int id = addNode(o, classInfo(o.getClass())[0], size, parent, field, listener);
+        ids.put(o, id);
+
+        if (limits != null) {
+            walkedNodes++;
+            walkedBytes += size;
+            if (walkedNodes >= limits.getMaxNodes()) {
+                limitReached = "max nodes (" + limits.getMaxNodes() + ")";
+            } else if (walkedBytes >= limits.getMaxBytes()) {
+                limitReached = "max bytes (" + limits.getMaxBytes() + ")";
+            }
+        }
+        return id;
+    }
+
+    private <X extends Exception> int addNode(Object o, int classId, long size, int parent, int field,
+                                              Listener<X> listener) throws X {
+        int id = nodes.size();
+        nodes.add(o);
+        listener.onNode(id, o, classId, size, parent, field);
+        return id;
+    }
+
+    private int[] classInfo(Class<?> klass) {
+        int[] info = classInfos.get(klass);
+        if (info == null) {
+            if (klass == null || klass.isArray()) {
+                info = new int[]{classNames.size()};
+            } else {
+                String[] names = ClassLayout.of(klass).getReferenceNames();
+                info = new int[names.length + 1];
+                info[0] = classNames.size();
+                for (int c = 0; c < names.length; c++) {
+                    info[c + 1] = fieldId(names[c]);
+                }
+            }
+            classNames.add((klass == null) ? GraphSnapshot.ROOTS : klass.getName());
+            classInfos.put(klass, info);
+        }
+        return info;
+    }
+
+    private int fieldId(String name) {
+        Integer id = fieldIds.get(name);
+        if (id == null) {
+            id = fieldNames.size();
+            fieldNames.add(name);
+            fieldIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the limit which had stopped the discovery, e.g. "max nodes (1000)";
+     * or null, if the walk was not stopped by the limits
+     */
+    String getLimitReached() {
+        return limitReached;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return node ids of the walked objects
+     */
+    IdentityIntMap getIds() {
+        return ids;
+    }
+
+    /**
+     * @return walked objects in the id order, null for the synthetic roots node
+     */
+    ObjectBuffer getObjects() {
+        return nodes;
+    }
+
+    List<String> getClassNames() {
+        return classNames;
+    }
+
+    List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+}
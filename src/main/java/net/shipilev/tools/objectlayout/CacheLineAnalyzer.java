@@ -0,0 +1,342 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.PrintStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maps the instance fields to the cache lines, and finds the hot fields which can share
+ * the line with each other, or with the neighboring objects. The object can start at any
+ * multiple of the object alignment within the line, so every such start is checked.
+ * <p>
+ * The volatile fields are hot by default: these are the ones updated concurrently, either
+ * directly, or via field updaters, which require volatile. The fields updated through Unsafe
+ * can be marked hot explicitly. The fields named like "p1" or "pad" are taken as padding,
+ * and never hot. The fields and classes annotated with @Contended are checked to actually
+ * have the line worth of padding around them; the VM ignores the annotation outside the JDK,
+ * unless -XX:-RestrictContended is given.
+ */
+public class CacheLineAnalyzer {
+
+    public static final int DEFAULT_LINE_SIZE = 64;
+
+    private final Class<?> klass;
+    private final int lineSize;
+    private final List<FieldLine> fields = new ArrayList<FieldLine>();
+    private final Set<String> hot = new HashSet<String>();
+    private final int instanceSize;
+    private final int[] starts;
+    private final boolean classContended;
+    private final int contendedPadding;
+
+    public CacheLineAnalyzer(Class<?> klass) {
+        this(klass, DEFAULT_LINE_SIZE);
+    }
+
+    public CacheLineAnalyzer(Class<?> klass, int lineSize) {
+        if (Integer.bitCount(lineSize) != 1) {
+            throw new IllegalArgumentException("Line size should be the power of two: " + lineSize);
+        }
+        this.klass = klass;
+        this.lineSize = lineSize;
+
+        int align = Math.min(VMSupport.objectAlignment(), lineSize);
+        starts = new int[lineSize / align];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = i * align;
+        }
+
+        boolean contended = false;
+        for (Class<?> k = klass; k != null; k = k.getSuperclass()) {
+            contended |= isContended(k.getDeclaredAnnotations());
+            for (Field f : k.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    fields.add(new FieldLine(k, f));
+                }
+            }
+        }
+        classContended = contended;
+        Collections.sort(fields);
+
+        // the VM pads @Contended fields on both sides, but the trailing padding
+        // does not show in the field offsets; take it to be as wide as the leading one
+        int padding = 0;
+        int nextFree = VMSupport.HEADER_SIZE;
+        for (FieldLine f : fields) {
+            if ((classContended || f.contended) && padding == 0) {
+                padding = f.offset - nextFree;
+            }
+            nextFree = f.offset + f.size;
+        }
+        contendedPadding = (padding >= lineSize) ? padding : 0;
+
+        int size = ClassLayout.of(klass).getInstanceSize();
+        if (!fields.isEmpty()) {
+            FieldLine last = fields.get(fields.size() - 1);
+            if (classContended || last.contended) {
+                size = VMSupport.align(size + contendedPadding);
+            }
+        }
+        instanceSize = size;
+    }
+
+    /**
+     * Marks the field hot, e.g. when it is updated through Unsafe.
+     *
+     * @param name field name
+     * @return this analyzer
+     */
+    public CacheLineAnalyzer markHot(String name) {
+        boolean found = false;
+        for (FieldLine f : fields) {
+            found |= f.name.equals(name);
+        }
+        if (!found) {
+            throw new IllegalArgumentException("No such field in " + klass.getName() + ": " + name);
+        }
+        hot.add(name);
+        return this;
+    }
+
+    private boolean isHot(FieldLine f) {
+        return !f.padding && (f.isVolatile || hot.contains(f.name));
+    }
+
+    /**
+     * @return pairs of the hot fields which share the cache line at some object start
+     */
+    public List<Sharing> getSharing() {
+        List<Sharing> result = new ArrayList<Sharing>();
+        for (int i = 0; i < fields.size(); i++) {
+            FieldLine f1 = fields.get(i);
+            if (!isHot(f1)) continue;
+            for (int j = i + 1; j < fields.size(); j++) {
+                FieldLine f2 = fields.get(j);
+                if (!isHot(f2)) continue;
+
+                int shared = 0;
+                for (int s : starts) {
+                    if (lastLine(f1, s) >= firstLine(f2, s)) {
+                        shared++;
+                    }
+                }
+                if (shared > 0) {
+                    result.add(new Sharing(f1.fullName(), f2.fullName(), shared, starts.length));
+                }
+            }
+        }
+        return result;
+    }
+
+    private int firstLine(FieldLine f, int start) {
+        return (start + f.offset) / lineSize;
+    }
+
+    private int lastLine(FieldLine f, int start) {
+        return (start + f.offset + f.size - 1) / lineSize;
+    }
+
+    /**
+     * @return true, if the field can share the line with the object placed right before this one
+     */
+    private boolean sharesWithPrevious(FieldLine f) {
+        for (int s : starts) {
+            if (firstLine(f, s) * lineSize < s) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true, if the field can share the line with the object placed right after this one
+     */
+    private boolean sharesWithNext(FieldLine f) {
+        for (int s : starts) {
+            if ((lastLine(f, s) + 1) * lineSize > s + instanceSize) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true, if there is at least the line worth of bytes between the field and any other
+     * non-padding field
+     */
+    private boolean isIsolated(FieldLine f) {
+        for (FieldLine o : fields) {
+            if (o == f || o.padding) continue;
+            if (o.offset + o.size + lineSize > f.offset && f.offset + f.size + lineSize > o.offset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void print(PrintStream pw) {
+        pw.println(klass.getName() + ", " + lineSize + "-byte cache lines, object starts at " +
+                starts.length + " possible line offsets:");
+        pw.printf(" %6s %5s %5s %s\n", "offset", "size", "lines", "description");
+        for (FieldLine f : fields) {
+            int first = Integer.MAX_VALUE;
+            int last = 0;
+            for (int s : starts) {
+                first = Math.min(first, firstLine(f, s));
+                last = Math.max(last, lastLine(f, s));
+            }
+            String lines = (first == last) ? String.valueOf(first) : first + "-" + last;
+
+            String notes = "";
+            if (f.isVolatile)     notes += " volatile";
+            if (hot.contains(f.name)) notes += " hot";
+            if (f.contended)      notes += " @Contended";
+            if (f.padding)        notes += " padding";
+            pw.printf(" %6d %5d %5s %s%s\n", f.offset, f.size, lines, f.fullName(),
+                    notes.isEmpty() ? "" : " (" + notes.substring(1) + ")");
+        }
+        if (contendedPadding > 0) {
+            pw.printf(" %6d %5s %5s %s\n", instanceSize, "", "", "(object boundary, with the assumed @Contended padding)");
+        } else {
+            pw.printf(" %6d %5s %5s %s\n", instanceSize, "", "", "(object boundary, size estimate)");
+        }
+
+        int hotCount = 0;
+        int paddingBytes = 0;
+        for (FieldLine f : fields) {
+            if (isHot(f)) hotCount++;
+            if (f.padding) paddingBytes += f.size;
+        }
+        if (paddingBytes > 0) {
+            pw.println("Manual padding: " + paddingBytes + " bytes.");
+        }
+        if (classContended) {
+            pw.println("Class is @Contended" + (contendedPadding > 0 ? ", padded with " + contendedPadding + " bytes." :
+                    ", but not padded: the VM needs -XX:-RestrictContended for the non-JDK classes."));
+        }
+        if (hotCount == 0) {
+            pw.println("No hot fields: mark the concurrently written fields volatile, or with markHot().");
+        }
+
+        for (Sharing s : getSharing()) {
+            pw.println("WARNING: " + s);
+        }
+        for (FieldLine f : fields) {
+            if (f.contended && !isIsolated(f)) {
+                pw.println("WARNING: " + f.fullName() + " is @Contended, but not padded: " +
+                        "the VM needs -XX:-RestrictContended for the non-JDK classes.");
+            }
+            if (!isHot(f)) continue;
+            boolean prev = sharesWithPrevious(f);
+            boolean next = sharesWithNext(f);
+            if (prev || next) {
+                pw.println("NOTE: " + f.fullName() + " can share the line with the " +
+                        (prev && next ? "previous and next" : (prev ? "previous" : "next")) + " object in memory.");
+            }
+        }
+    }
+
+    private static boolean isContended(Annotation[] annotations) {
+        for (Annotation a : annotations) {
+            // sun.misc.Contended, jdk.internal.vm.annotation.Contended, or the look-alikes
+            if (a.annotationType().getSimpleName().equals("Contended")) return true;
+        }
+        return false;
+    }
+
+    private static boolean isPadding(String name) {
+        return name.matches("p\\d+|p\\d+_\\d+|pad.*|.*[Pp]adding.*|.*_pad");
+    }
+
+    private static class FieldLine implements Comparable<FieldLine> {
+        private final String host;
+        private final String name;
+        private final int offset;
+        private final int size;
+        private final boolean isVolatile;
+        private final boolean contended;
+        private final boolean padding;
+
+        FieldLine(Class<?> host, Field field) {
+            this.host = host.getSimpleName();
+            this.name = field.getName();
+            this.offset = (int) VMSupport.U.objectFieldOffset(field);
+            this.size = VMSupport.sizeOfType(field.getType());
+            this.isVolatile = Modifier.isVolatile(field.getModifiers());
+            this.contended = isContended(field.getDeclaredAnnotations());
+            this.padding = isPadding(name);
+        }
+
+        String fullName() {
+            return host + "." + name;
+        }
+
+        @Override
+        public int compareTo(FieldLine o) {
+            return (offset < o.offset) ? -1 : ((offset == o.offset) ? 0 : 1);
+        }
+    }
+
+    public static class Sharing {
+        private final String field1;
+        private final String field2;
+        private final int sharedStarts;
+        private final int totalStarts;
+
+        Sharing(String field1, String field2, int sharedStarts, int totalStarts) {
+            this.field1 = field1;
+            this.field2 = field2;
+            this.sharedStarts = sharedStarts;
+            this.totalStarts = totalStarts;
+        }
+
+        public String getField1() {
+            return field1;
+        }
+
+        public String getField2() {
+            return field2;
+        }
+
+        /**
+         * @return number of the object starts within the line which put both fields on the same line
+         */
+        public int getSharedStarts() {
+            return sharedStarts;
+        }
+
+        public int getTotalStarts() {
+            return totalStarts;
+        }
+
+        @Override
+        public String toString() {
+            return field1 + " and " + field2 + " share the cache line" +
+                    (sharedStarts == totalStarts ? " always" : " at " + sharedStarts + " of " + totalStarts + " object starts");
+        }
+    }
+
+}
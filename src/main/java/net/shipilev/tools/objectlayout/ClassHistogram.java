@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.Multiset;
+
+/**
+ * Instance counts and sizes per class name, taken at some point in time. Unlike
+ * {@link Footprint}, this does not reference the classes, and can come from the
+ * saved snapshots as well. The classes with the same name from different class
+ * loaders are merged.
+ */
+public class ClassHistogram {
+
+    private final String[] names;
+    private final long[] counts;
+    private final long[] sizes;
+    private final long timestamp;
+
+    /**
+     * @param names class names, may repeat
+     * @param counts instance counts
+     * @param sizes instance sizes
+     * @param timestamp when the histogram was taken, in milliseconds
+     */
+    public ClassHistogram(String[] names, long[] counts, long[] sizes, long timestamp) {
+        if (names.length != counts.length || names.length != sizes.length) {
+            throw new IllegalArgumentException("Names, counts and sizes should have the same length");
+        }
+        this.names = names;
+        this.counts = counts;
+        this.sizes = sizes;
+        this.timestamp = timestamp;
+    }
+
+    public static ClassHistogram of(Footprint footprint) {
+        return of(footprint.getClassCounts(), footprint.getClassSizes(), footprint.getTimestamp());
+    }
+
+    public static ClassHistogram of(Multiset<Class<?>> classCounts, Multiset<Class<?>> classSizes, long timestamp) {
+        int n = classCounts.size();
+        String[] names = new String[n];
+        long[] counts = new long[n];
+        long[] sizes = new long[n];
+
+        int i = 0;
+        for (Class<?> key : classCounts.keys()) {
+            names[i] = key.getName();
+            counts[i] = classCounts.count(key);
+            sizes[i] = classSizes.count(key);
+            i++;
+        }
+        return new ClassHistogram(names, counts, sizes, timestamp);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int idx) {
+        return names[idx];
+    }
+
+    public long getCount(int idx) {
+        return counts[idx];
+    }
+
+    public long getSize(int idx) {
+        return sizes[idx];
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+}
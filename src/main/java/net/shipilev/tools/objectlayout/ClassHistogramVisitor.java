@@ -0,0 +1,49 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.Multiset;
+
+/**
+ * Counts instances and their sizes per class.
+ */
+public class ClassHistogramVisitor implements ObjectVisitor {
+
+    private final Multiset<Class<?>> classSizes = new Multiset<Class<?>>();
+    private final Multiset<Class<?>> classCounts = new Multiset<Class<?>>();
+
+    @Override
+    public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+        classCounts.add(klass);
+        classSizes.add(klass, size);
+        return Action.CONTINUE;
+    }
+
+    public Multiset<Class<?>> getClassSizes() {
+        return classSizes;
+    }
+
+    public Multiset<Class<?>> getClassCounts() {
+        return classCounts;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.ObjectLayout.FieldInfo;
+import net.shipilev.tools.objectlayout.util.ClassCache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ClassLayout {
+
+    private static final ClassCache<ClassLayout> CACHE = new ClassCache<ClassLayout>() {
+        @Override
+        protected ClassLayout compute(Class<?> klass) {
+            return new ClassLayout(klass);
+        }
+    };
+
+    private final FieldInfo[] fields;
+    private final long[] referenceOffsets;
+    private final String[] referenceNames;
+    private final int instanceSize;
+
+    private ClassLayout(Class<?> klass) {
+        List<FieldInfo> list = new ArrayList<FieldInfo>();
+
+        Class<?> superKlass = klass;
+        while (superKlass != null) {
+            for (Field f : superKlass.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    list.add(new FieldInfo(superKlass, f));
+                }
+            }
+            superKlass = superKlass.getSuperclass();
+        }
+
+        fields = list.toArray(new FieldInfo[list.size()]);
+        Arrays.sort(fields);
+
+        int refs = 0;
+        for (FieldInfo f : fields) {
+            if (!f.isPrimitive()) refs++;
+        }
+        referenceOffsets = new long[refs];
+        referenceNames = new String[refs];
+        refs = 0;
+        for (FieldInfo f : fields) {
+            if (!f.isPrimitive()) {
+                referenceOffsets[refs] = f.getOffset();
+                referenceNames[refs] = f.getName();
+                refs++;
+            }
+        }
+
+        if (fields.length > 0) {
+            FieldInfo last = fields[fields.length - 1];
+            instanceSize = VMSupport.align(last.getOffset() + last.getSize());
+        } else {
+            instanceSize = VMSupport.align(VMSupport.HEADER_SIZE);
+        }
+    }
+
+    public static ClassLayout of(Class<?> klass) {
+        return CACHE.get(klass);
+    }
+
+    /**
+     * Instance fields, including the inherited ones, sorted by offset.
+     */
+    public FieldInfo[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Offsets of the instance reference fields, including the inherited ones.
+     */
+    public long[] getReferenceOffsets() {
+        return referenceOffsets;
+    }
+
+    /**
+     * Names of the instance reference fields, matching {@link #getReferenceOffsets()}.
+     */
+    public String[] getReferenceNames() {
+        return referenceNames;
+    }
+
+    /**
+     * Instance size estimate, already aligned.
+     */
+    public int getInstanceSize() {
+        return instanceSize;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Lists the class names in the classpath entries, without loading the classes.
+ */
+public class ClassScanner {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * Adds the names of the classes from the given jar or directory, which start with the prefix.
+     */
+    public static void scan(File entry, String prefix, Collection<String> names) throws IOException {
+        if (entry.isDirectory()) {
+            scanDirectory(entry, "", prefix, names);
+        } else if (entry.isFile()) {
+            scanJar(entry, prefix, names);
+        }
+    }
+
+    /**
+     * Adds the names of the classes from every entry of the classpath, which start with the prefix.
+     */
+    public static void scanClasspath(String classpath, String prefix, Collection<String> names) throws IOException {
+        for (String path : classpath.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                scan(new File(path), prefix, names);
+            }
+        }
+    }
+
+    private static void scanDirectory(File dir, String pkg, String prefix, Collection<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                scanDirectory(f, pkg + name + ".", prefix, names);
+            } else if (name.endsWith(CLASS_SUFFIX)) {
+                add(pkg + name.substring(0, name.length() - CLASS_SUFFIX.length()), prefix, names);
+            }
+        }
+    }
+
+    private static void scanJar(File file, String prefix, Collection<String> names) throws IOException {
+        JarFile jar = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/")) {
+                    add(name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.'), prefix, names);
+                }
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static void add(String name, String prefix, Collection<String> names) {
+        if (name.endsWith("package-info") || name.endsWith("module-info")) return;
+        if (name.startsWith(prefix)) {
+            names.add(name);
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.IntList;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Dominator tree of the object graph, and the retained sizes it implies: the retained
+ * size of an object is the amount of memory that becomes unreachable once the object
+ * itself is unreachable. Dominators are computed with the simple version of the
+ * Lengauer-Tarjan algorithm, with path compression, over plain int arrays.
+ */
+public class DominatorTree {
+
+    private final ObjectGraphIndex graph;
+    private final int[] idom;
+    private final long[] retained;
+
+    // Lengauer-Tarjan state, only used during the construction
+    private int[] dfnum;
+    private int[] semi;
+    private int[] ancestor;
+    private int[] best;
+    private int[] compressStack = new int[16];
+
+    public DominatorTree(ObjectGraphIndex graph) {
+        this.graph = graph;
+
+        int n = graph.size();
+        int[] vertex = new int[n];
+        int[] parent = new int[n];
+        dfnum = new int[n];
+        computeOrder(graph, vertex, dfnum, parent);
+
+        int[] predStarts = new int[n + 1];
+        int[] preds = new int[graph.getEdgeCount()];
+        computePredecessors(graph, predStarts, preds);
+
+        idom = new int[n];
+        semi = new int[n];
+        ancestor = new int[n];
+        best = new int[n];
+        int[] sameDom = new int[n];
+        int[] bucketHead = new int[n];
+        int[] bucketNext = new int[n];
+        Arrays.fill(ancestor, -1);
+        Arrays.fill(sameDom, -1);
+        Arrays.fill(bucketHead, -1);
+
+        for (int i = n - 1; i > 0; i--) {
+            int node = vertex[i];
+            int p = parent[node];
+
+            int s = p;
+            for (int e = predStarts[node]; e < predStarts[node + 1]; e++) {
+                int v = preds[e];
+                int candidate = (dfnum[v] <= dfnum[node]) ? v : semi[ancestorWithLowestSemi(v)];
+                if (dfnum[candidate] < dfnum[s]) {
+                    s = candidate;
+                }
+            }
+            semi[node] = s;
+            bucketNext[node] = bucketHead[s];
+            bucketHead[s] = node;
+
+            ancestor[node] = p;
+            best[node] = node;
+
+            for (int v = bucketHead[p]; v != -1; v = bucketNext[v]) {
+                int y = ancestorWithLowestSemi(v);
+                if (semi[y] == semi[v]) {
+                    idom[v] = p;
+                } else {
+                    sameDom[v] = y;
+                }
+            }
+            bucketHead[p] = -1;
+        }
+
+        for (int i = 1; i < n; i++) {
+            int node = vertex[i];
+            if (sameDom[node] != -1) {
+                idom[node] = idom[sameDom[node]];
+            }
+        }
+        idom[0] = 0;
+
+        semi = null;
+        ancestor = null;
+        best = null;
+        dfnum = null;
+
+        // dominators precede the nodes in the depth-first order, go backwards to sum up the subtrees
+        retained = new long[n];
+        for (int i = 0; i < n; i++) {
+            retained[i] = graph.getShallowSize(i);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int node = vertex[i];
+            retained[idom[node]] += retained[node];
+        }
+    }
+
+    /**
+     * Finds the node with the lowest semidominator on the path to the root of the
+     * spanning forest, compressing the path along the way. The path can be as long
+     * as the graph itself, so this goes iteratively.
+     */
+    private int ancestorWithLowestSemi(int v) {
+        int top = 0;
+        for (int x = v; ancestor[ancestor[x]] != -1; x = ancestor[x]) {
+            if (top == compressStack.length) {
+                compressStack = Arrays.copyOf(compressStack, top * 2);
+            }
+            compressStack[top++] = x;
+        }
+
+        while (top > 0) {
+            int x = compressStack[--top];
+            int a = ancestor[x];
+            int b = best[a];
+            ancestor[x] = ancestor[a];
+            if (dfnum[semi[b]] < dfnum[semi[best[x]]]) {
+                best[x] = b;
+            }
+        }
+        return best[v];
+    }
+
+    private static void computeOrder(ObjectGraphIndex graph, int[] vertex, int[] dfnum, int[] parent) {
+        int n = graph.size();
+        int[] stack = new int[n];
+        int[] cursors = new int[n];
+        boolean[] seen = new boolean[n];
+
+        int num = 0;
+        int top = 0;
+        stack[0] = 0;
+        cursors[0] = graph.getEdgeStart(0);
+        seen[0] = true;
+        parent[0] = -1;
+        dfnum[0] = num;
+        vertex[num++] = 0;
+
+        while (top >= 0) {
+            int node = stack[top];
+            if (cursors[node] < graph.getEdgeEnd(node)) {
+                int next = graph.getEdge(cursors[node]++);
+                if (!seen[next]) {
+                    seen[next] = true;
+                    parent[next] = node;
+                    dfnum[next] = num;
+                    vertex[num++] = next;
+                    cursors[next] = graph.getEdgeStart(next);
+                    stack[++top] = next;
+                }
+            } else {
+                top--;
+            }
+        }
+    }
+
+    private static void computePredecessors(ObjectGraphIndex graph, int[] predStarts, int[] preds) {
+        int n = graph.size();
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            predStarts[graph.getEdge(e) + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            predStarts[i + 1] += predStarts[i];
+        }
+        int[] fill = new int[n];
+        for (int from = 0; from < n; from++) {
+            for (int e = graph.getEdgeStart(from); e < graph.getEdgeEnd(from); e++) {
+                int to = graph.getEdge(e);
+                preds[predStarts[to] + fill[to]++] = from;
+            }
+        }
+    }
+
+    /**
+     * @return immediate dominator of the node, the root dominates itself
+     */
+    public int getImmediateDominator(int id) {
+        return idom[id];
+    }
+
+    public long getRetainedSize(int id) {
+        return retained[id];
+    }
+
+    /**
+     * @return retained size of the object, or -1 if the object is not in the graph
+     */
+    public long getRetainedSize(Object o) {
+        if (!(graph instanceof IndexedObjectGraph)) {
+            throw new IllegalStateException("Objects are only known for the live graphs");
+        }
+        int id = ((IndexedObjectGraph) graph).getId(o);
+        return (id < 0) ? -1 : retained[id];
+    }
+
+    public void print(PrintStream pw, int top) {
+        int n = graph.size();
+
+        pw.printf(" %10s %10s %s\n", "retained", "shallow", "object");
+        for (int id : topIndices(retained, top)) {
+            pw.printf(" %10d %10d %s (%s)\n", retained[id], graph.getShallowSize(id), graph.getPath(id),
+                    graph.getClassName(id));
+        }
+        pw.println();
+
+        // the nodes sharing the field path never dominate each other, so their retained sizes add up
+        IntList pathNodes = new IntList();
+        int[] nodePaths = graph.internPaths(pathNodes);
+        long[] sums = new long[pathNodes.size()];
+        for (int id = 0; id < n; id++) {
+            sums[nodePaths[id]] += retained[id];
+        }
+
+        pw.printf(" %10s %s\n", "retained", "field path");
+        for (int p : topIndices(sums, top)) {
+            pw.printf(" %10d %s\n", sums[p], graph.getPath(pathNodes.get(p)));
+        }
+    }
+
+    static int[] topIndices(long[] values, int top) {
+        int count = Math.min(top, values.length);
+        int[] result = new int[count];
+        if (count == 0) return result;
+
+        int filled = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (filled == count && values[result[filled - 1]] >= values[i]) {
+                continue;
+            }
+            int pos = (filled < count) ? filled++ : filled - 1;
+            while (pos > 0 && values[result[pos - 1]] < values[i]) {
+                result[pos] = result[pos - 1];
+                pos--;
+            }
+            result[pos] = i;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.output.ReportWriter;
+import net.shipilev.tools.objectlayout.output.TextReportWriter;
+import net.shipilev.tools.objectlayout.util.Multiset;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Instance counts and sizes of the objects reachable from some roots.
+ */
+public class Footprint {
+
+    private final Multiset<Class<?>> classCounts;
+    private final Multiset<Class<?>> classSizes;
+    private final long totalCount;
+    private final long totalSize;
+    private final long timestamp;
+    private final String limitReached;
+    private final List<WalkLimits.Truncation> truncations;
+
+    public Footprint(Multiset<Class<?>> classCounts, Multiset<Class<?>> classSizes) {
+        this(classCounts, classSizes, null, Collections.<WalkLimits.Truncation>emptyList());
+    }
+
+    /**
+     * @param limitReached the limit which had stopped the walk, or null
+     * @param truncations subtrees cut off by the walk limits
+     */
+    public Footprint(Multiset<Class<?>> classCounts, Multiset<Class<?>> classSizes,
+                     String limitReached, List<WalkLimits.Truncation> truncations) {
+        this.classCounts = classCounts;
+        this.classSizes = classSizes;
+
+        long count = 0;
+        long size = 0;
+        for (Class<?> key : classCounts.keys()) {
+            count += classCounts.count(key);
+            size += classSizes.count(key);
+        }
+        this.totalCount = count;
+        this.totalSize = size;
+        this.timestamp = System.currentTimeMillis();
+        this.limitReached = limitReached;
+        this.truncations = Collections.unmodifiableList(new ArrayList<WalkLimits.Truncation>(truncations));
+    }
+
+    public Multiset<Class<?>> getClassCounts() {
+        return classCounts;
+    }
+
+    public Multiset<Class<?>> getClassSizes() {
+        return classSizes;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return when the footprint was taken, in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return true, if the walk limits had left some objects out, and the totals are the lower bounds
+     */
+    public boolean isTruncated() {
+        return limitReached != null || !truncations.isEmpty();
+    }
+
+    /**
+     * @return the limit which had stopped the walk, or null
+     */
+    public String getLimitReached() {
+        return limitReached;
+    }
+
+    public List<WalkLimits.Truncation> getTruncations() {
+        return truncations;
+    }
+
+    public void print(PrintStream pw) {
+        TextReportWriter w = new TextReportWriter(pw);
+        try {
+            write(w, null);
+        } catch (IOException e) {
+            // text writer does not throw
+            throw new IllegalStateException(e);
+        }
+        w.flush();
+
+        if (limitReached != null) {
+            pw.println("Walk stopped at " + limitReached + ", the totals are the lower bounds");
+        }
+        for (WalkLimits.Truncation t : truncations) {
+            pw.println(t);
+        }
+    }
+
+    /**
+     * @param w writer
+     * @param root name of the root, or null
+     */
+    public void write(ReportWriter w, String root) throws IOException {
+        for (Class<?> key : classCounts.keys()) {
+            w.histogramRow(root, key.getName(), classCounts.count(key), classSizes.count(key));
+        }
+        w.histogramEnd(root, totalCount, totalSize);
+    }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.Multiset;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Estimates the footprint by walking only a sample of the elements of the large reference
+ * arrays, which also covers the collections built on top of them, like HashMap and ArrayList.
+ * Every sampled element stands for (array length / sampled elements) elements, and
+ * everything reachable through it is scaled up by the same weight.
+ * <p>
+ * The confidence intervals come from the random groups method: the sampled elements are
+ * randomly split into {@link #REPLICATES} groups, every group makes its own estimate, and
+ * the spread between the group estimates gives the standard error. The objects reachable
+ * from both the sampled and the exactly walked parts are counted once, with the weight of
+ * the path that found them first, which biases the estimate when such sharing is heavy.
+ * <p>
+ * The walk itself is {@link ObjectGraphWalker} with the {@link SamplingObjectVisitor}. It stops
+ * once it hits the node or time budget, see {@link WalkLimits}; the estimate is then marked
+ * truncated, and only covers the part of the graph walked so far.
+ */
+public class FootprintEstimator {
+
+    public static final int REPLICATES = 16;
+
+    // Student's t quantile for two-sided 95% interval with (REPLICATES - 1) degrees of freedom
+    private static final double T_QUANTILE = 2.131;
+
+    private final Object[] roots;
+    private final ObjectFilter filter;
+
+    private double samplingRate = 0.01;
+    private int arrayThreshold = 10000;
+    private long maxNodes = Long.MAX_VALUE;
+    private long maxTimeNanos = Long.MAX_VALUE;
+    private long seed = 42;
+
+    // per walk depth: weight for the children of the object at that depth, replicate group
+    // of its children (-1 for exact part), whether its elements are sampled
+    private double[] depthWeights = new double[16];
+    private int[] depthReplicates = new int[16];
+    private boolean[] depthSampled = new boolean[16];
+    private int lastDepth;
+
+    private Multiset<Class<?>> exactCounts;
+    private Multiset<Class<?>> exactSizes;
+
+    // per class: weighted counts per replicate, then weighted sizes per replicate
+    private Map<Class<?>, double[]> sampled;
+    private Random random;
+    private long nodes;
+
+    public FootprintEstimator(Object... roots) {
+        this(ObjectFilters.defaults(), roots);
+    }
+
+    public FootprintEstimator(ObjectFilter filter, Object... roots) {
+        this.roots = roots.clone();
+        this.filter = filter;
+    }
+
+    /**
+     * @param rate fraction of the elements to walk in the large arrays, 0 < rate <= 1
+     */
+    public void setSamplingRate(double rate) {
+        if (rate <= 0 || rate > 1) {
+            throw new IllegalArgumentException("Sampling rate should be in (0; 1]: " + rate);
+        }
+        this.samplingRate = rate;
+    }
+
+    /**
+     * @param length arrays longer than this are sampled
+     */
+    public void setArrayThreshold(int length) {
+        this.arrayThreshold = length;
+    }
+
+    public void setMaxNodes(long maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public void setMaxTime(long maxTimeNanos) {
+        this.maxTimeNanos = maxTimeNanos;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public Estimate estimate() {
+        exactCounts = new Multiset<Class<?>>();
+        exactSizes = new Multiset<Class<?>>();
+        sampled = new IdentityHashMap<Class<?>, double[]>();
+        random = new Random(seed);
+        nodes = 0;
+
+        WalkLimits limits = new WalkLimits();
+        if (maxNodes != Long.MAX_VALUE) {
+            limits.setMaxNodes(maxNodes);
+        }
+        if (maxTimeNanos != Long.MAX_VALUE) {
+            limits.setMaxTime(maxTimeNanos);
+        }
+
+        ObjectGraphWalker walker = new ObjectGraphWalker(roots, filter, new IdentityVisitedSet());
+        walker.setLimits(limits);
+        walker.walk(new SamplingObjectVisitor() {
+            @Override
+            public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+                visit(klass, size, depth);
+                return Action.CONTINUE;
+            }
+
+            @Override
+            public int getArrayStep(Object[] array) {
+                if (array.length > arrayThreshold && samplingRate < 1) {
+                    return Math.max(1, (int) Math.round(1 / samplingRate));
+                }
+                return 1;
+            }
+
+            @Override
+            public int getArrayStart(Object[] array, int step) {
+                int start = random.nextInt(step);
+                int samples = (array.length - start + step - 1) / step;
+                depthWeights[lastDepth] *= (double) array.length / samples;
+                depthSampled[lastDepth] = true;
+                return start;
+            }
+        });
+
+        return new Estimate(exactCounts, exactSizes, sampled, nodes, walker.getLimitReached() != null);
+    }
+
+    private void visit(Class<?> klass, long size, int depth) {
+        double weight = 1.0;
+        int replicate = -1;
+        if (depth > 0) {
+            weight = depthWeights[depth - 1];
+            replicate = depthReplicates[depth - 1];
+            if (replicate < 0 && depthSampled[depth - 1]) {
+                replicate = random.nextInt(REPLICATES);
+            }
+        }
+        record(klass, size, weight, replicate);
+
+        // the walk is depth-first: the next objects reported at (depth + 1) are the children of this one
+        if (depth == depthWeights.length) {
+            depthWeights = Arrays.copyOf(depthWeights, depth * 2);
+            depthReplicates = Arrays.copyOf(depthReplicates, depth * 2);
+            depthSampled = Arrays.copyOf(depthSampled, depth * 2);
+        }
+        depthWeights[depth] = weight;
+        depthReplicates[depth] = replicate;
+        depthSampled[depth] = false;
+        lastDepth = depth;
+    }
+
+    private void record(Class<?> klass, long size, double weight, int replicate) {
+        nodes++;
+        if (replicate < 0) {
+            exactCounts.add(klass);
+            exactSizes.add(klass, size);
+        } else {
+            double[] acc = sampled.get(klass);
+            if (acc == null) {
+                acc = new double[REPLICATES * 2];
+                sampled.put(klass, acc);
+            }
+            acc[replicate] += weight;
+            acc[REPLICATES + replicate] += weight * size;
+        }
+    }
+
+    public static class Estimate {
+        private final List<ClassEstimate> classes = new ArrayList<ClassEstimate>();
+        private final ClassEstimate total;
+        private final long nodes;
+        private final boolean truncated;
+
+        Estimate(Multiset<Class<?>> exactCounts, Multiset<Class<?>> exactSizes, Map<Class<?>, double[]> sampled,
+                 long nodes, boolean truncated) {
+            this.nodes = nodes;
+            this.truncated = truncated;
+
+            Set<Class<?>> keys = new HashSet<Class<?>>(exactCounts.keys());
+            keys.addAll(sampled.keySet());
+
+            double[] totalReplicates = new double[REPLICATES * 2];
+            long totalExactCount = 0;
+            long totalExactSize = 0;
+            for (Class<?> k : keys) {
+                double[] acc = sampled.get(k);
+                if (acc == null) {
+                    acc = new double[REPLICATES * 2];
+                }
+                for (int r = 0; r < acc.length; r++) {
+                    totalReplicates[r] += acc[r];
+                }
+                totalExactCount += exactCounts.count(k);
+                totalExactSize += exactSizes.count(k);
+                classes.add(new ClassEstimate(k.getName(), exactCounts.count(k), exactSizes.count(k), acc));
+            }
+            total = new ClassEstimate("(total)", totalExactCount, totalExactSize, totalReplicates);
+
+            Collections.sort(classes, new Comparator<ClassEstimate>() {
+                @Override
+                public int compare(ClassEstimate o1, ClassEstimate o2) {
+                    return Double.compare(o2.size, o1.size);
+                }
+            });
+        }
+
+        public List<ClassEstimate> getClasses() {
+            return classes;
+        }
+
+        public ClassEstimate getTotal() {
+            return total;
+        }
+
+        /**
+         * @return number of objects actually walked
+         */
+        public long getVisitedNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return true, if the walk hit the budget and did not cover the whole graph
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public void print(PrintStream pw) {
+            pw.printf(" %12s %10s %14s %12s %s\n", "count", "+/-", "size", "+/-", "description");
+            for (ClassEstimate c : classes) {
+                c.print(pw);
+            }
+            total.print(pw);
+            pw.println(nodes + " objects visited, intervals are 95% confidence" + (truncated ? ", walk had hit the budget and is truncated" : ""));
+        }
+    }
+
+    public static class ClassEstimate {
+        private final String name;
+        private final double count;
+        private final double countError;
+        private final double size;
+        private final double sizeError;
+
+        ClassEstimate(String name, long exactCount, long exactSize, double[] replicates) {
+            this.name = name;
+
+            double countSum = 0;
+            double sizeSum = 0;
+            for (int r = 0; r < REPLICATES; r++) {
+                countSum += replicates[r];
+                sizeSum += replicates[REPLICATES + r];
+            }
+            this.count = exactCount + countSum;
+            this.size = exactSize + sizeSum;
+
+            // every group makes the estimate of (exact + REPLICATES * group sum),
+            // the exact part cancels out in the deviations from the mean
+            double countVar = 0;
+            double sizeVar = 0;
+            for (int r = 0; r < REPLICATES; r++) {
+                double dc = REPLICATES * replicates[r] - countSum;
+                double ds = REPLICATES * replicates[REPLICATES + r] - sizeSum;
+                countVar += dc * dc;
+                sizeVar += ds * ds;
+            }
+            countVar /= REPLICATES * (REPLICATES - 1);
+            sizeVar /= REPLICATES * (REPLICATES - 1);
+
+            this.countError = T_QUANTILE * Math.sqrt(countVar);
+            this.sizeError = T_QUANTILE * Math.sqrt(sizeVar);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getCount() {
+            return count;
+        }
+
+        public double getCountError() {
+            return countError;
+        }
+
+        public double getSize() {
+            return size;
+        }
+
+        public double getSizeError() {
+            return sizeError;
+        }
+
+        void print(PrintStream pw) {
+            pw.printf(" %12.0f %10.0f %14.0f %12.0f %s\n", count, countError, size, sizeError, name);
+        }
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.Multiset;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the footprint of the named long-lived structures in the running application.
+ * The roots are re-walked periodically by the low-priority daemon thread, and the results
+ * are published as one {@link MonitoredFootprintMBean} per root, under
+ * "net.shipilev.tools.objectlayout:type=Footprint,name=...".
+ * <p>
+ * Every cycle walks the roots in turn until the time budget is spent; the next cycle picks
+ * up from the root where the previous one had stopped. The walk which alone goes over the
+ * budget is abandoned and marked truncated, and the previous results stay published.
+ * The walk stopped by the {@link WalkLimits} is published, marked truncated.
+ * The budget is the wall clock time, which is the upper bound for the walker CPU time.
+ * The roots which had been garbage collected are unregistered.
+ */
+public class FootprintMonitor {
+
+    public static final String DOMAIN = "net.shipilev.tools.objectlayout";
+
+    private final MBeanServer server;
+    private final Map<String, MonitoredFootprint> roots = new ConcurrentHashMap<String, MonitoredFootprint>();
+
+    // null for the defaults, created afresh every cycle
+    private ObjectFilter filter;
+    private WalkLimits limits;
+    private long period = TimeUnit.MINUTES.toMillis(1);
+    private long budget = TimeUnit.SECONDS.toNanos(1);
+    private int topClasses = 10;
+
+    private ScheduledExecutorService scheduler;
+
+    private final Object cycleLock = new Object();
+    private int nextRoot;
+
+    public FootprintMonitor() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public FootprintMonitor(MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @param filter filter for the objects to take in; or null for {@link ObjectFilters#defaults()},
+     *               which are created afresh every cycle, so that they neither hold on to the classes
+     *               and the static fields they had seen, nor miss the statics assigned later
+     */
+    public synchronized void setFilter(ObjectFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param limits limits for every walk, or null for none; the walks cut by the limits
+     *               publish the partial totals, marked truncated
+     */
+    public synchronized void setLimits(WalkLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * @param period time between the cycles, in milliseconds
+     */
+    public synchronized void setPeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period should be positive: " + period);
+        }
+        this.period = period;
+    }
+
+    /**
+     * @param budget time to spend walking in each cycle, in nanoseconds
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget should be positive: " + budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * @param topClasses number of the largest classes to publish
+     */
+    public synchronized void setTopClasses(int topClasses) {
+        this.topClasses = topClasses;
+    }
+
+    /**
+     * Starts monitoring the root under the given name, and publishes its MBean.
+     */
+    public void register(String name, Object root) {
+        if (root == null) {
+            throw new IllegalArgumentException("Root should not be null");
+        }
+        ObjectName objectName;
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=Footprint,name=" + ObjectName.quote(name));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Illegal name: " + name, e);
+        }
+
+        MonitoredFootprint footprint = new MonitoredFootprint(name, root, objectName);
+        synchronized (this) {
+            if (roots.containsKey(name)) {
+                throw new IllegalArgumentException("Already registered: " + name);
+            }
+            try {
+                server.registerMBean(footprint, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                throw new IllegalArgumentException("Already registered by someone else: " + name, e);
+            } catch (MBeanRegistrationException e) {
+                throw new IllegalStateException(e);
+            } catch (NotCompliantMBeanException e) {
+                throw new IllegalStateException(e);
+            }
+            roots.put(name, footprint);
+        }
+    }
+
+    /**
+     * Stops monitoring the root, and removes its MBean.
+     */
+    public synchronized void unregister(String name) {
+        MonitoredFootprint footprint = roots.remove(name);
+        if (footprint != null) {
+            unregisterMBean(footprint);
+        }
+    }
+
+    private void unregisterMBean(MonitoredFootprint footprint) {
+        try {
+            server.unregisterMBean(footprint.getObjectName());
+        } catch (InstanceNotFoundException e) {
+            // someone else had removed it, fine
+        } catch (MBeanRegistrationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return latest results for the root, or null if there is no such root
+     */
+    public MonitoredFootprintMBean get(String name) {
+        return roots.get(name);
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "footprint-monitor");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runCycle();
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background walks, and removes all the MBeans.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        for (MonitoredFootprint footprint : roots.values()) {
+            unregisterMBean(footprint);
+        }
+        roots.clear();
+    }
+
+    /**
+     * Runs one monitoring cycle in the caller thread.
+     */
+    public void runCycle() {
+        ObjectFilter filter;
+        WalkLimits limits;
+        long budget;
+        int top;
+        synchronized (this) {
+            filter = (this.filter != null) ? this.filter : ObjectFilters.defaults();
+            limits = this.limits;
+            budget = this.budget;
+            top = this.topClasses;
+        }
+
+        synchronized (cycleLock) {
+            List<MonitoredFootprint> list = new ArrayList<MonitoredFootprint>(roots.values());
+            if (list.isEmpty()) return;
+
+            long deadline = System.nanoTime() + budget;
+            int first = nextRoot;
+            for (int c = 0; c < list.size() && System.nanoTime() < deadline; c++) {
+                int idx = (first + c) % list.size();
+                MonitoredFootprint footprint = list.get(idx);
+
+                Object root = footprint.getRoot();
+                if (root == null) {
+                    unregister(footprint.getName());
+                } else if (!walk(footprint, root, filter, limits, deadline, top) && c > 0) {
+                    // ran out of what was left of the budget, start the next cycle from this root
+                    nextRoot = idx;
+                    return;
+                }
+                nextRoot = idx + 1;
+            }
+        }
+    }
+
+    /**
+     * @return false, if the walk had run out of the budget
+     */
+    private static boolean walk(MonitoredFootprint footprint, Object root, ObjectFilter filter, WalkLimits limits,
+                                long deadline, int top) {
+        long start = System.nanoTime();
+        DeadlineVisitor visitor = new DeadlineVisitor(deadline);
+        ObjectGraphWalker walker = new ObjectGraphWalker(new Object[]{root}, filter, new IdentityVisitedSet());
+        walker.setLimits(limits);
+        walker.walk(visitor);
+        long walkTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        if (visitor.expired) {
+            footprint.truncated(walkTime);
+            return false;
+        }
+
+        Multiset<Class<?>> counts = visitor.getClassCounts();
+        Multiset<Class<?>> sizes = visitor.getClassSizes();
+        List<Class<?>> classes = new ArrayList<Class<?>>(counts.keys());
+        long[] classSizes = new long[classes.size()];
+        long totalCount = 0;
+        long totalSize = 0;
+        for (int c = 0; c < classSizes.length; c++) {
+            classSizes[c] = sizes.count(classes.get(c));
+            totalCount += counts.count(classes.get(c));
+            totalSize += classSizes[c];
+        }
+
+        int[] topIdx = DominatorTree.topIndices(classSizes, top);
+        String[] topClasses = new String[topIdx.length];
+        for (int c = 0; c < topIdx.length; c++) {
+            Class<?> klass = classes.get(topIdx[c]);
+            topClasses[c] = classSizes[topIdx[c]] + " " + counts.count(klass) + " " + klass.getName();
+        }
+
+        boolean truncated = walker.getLimitReached() != null || !walker.getTruncations().isEmpty();
+        footprint.update(totalSize, totalCount, topClasses, walkTime, truncated);
+        return true;
+    }
+
+    private static class DeadlineVisitor extends ClassHistogramVisitor {
+        private final long deadline;
+        private int visited;
+        private boolean expired;
+
+        DeadlineVisitor(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+            // reading the clock is not free, check it once in a while
+            if ((++visited & 1023) == 0 && System.nanoTime() > deadline) {
+                expired = true;
+                return Action.STOP;
+            }
+            return super.onObject(obj, klass, size, depth, parentField);
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Projects the footprint of the walked objects onto the hypothetical VM layouts, to see what
+ * the same objects would take with the other reference size, alignment, or headers, without
+ * restarting the VM with the other flags. One walk computes the sizes under all the models:
+ * the instance sizes come from the packing model of every {@link VMLayout}, and the array
+ * sizes from the array lengths.
+ * <p>
+ * The object graph itself is assumed to be the same under every model. The compressed
+ * references only work for the heaps up to {@link VMLayout#getMaxHeapSize()}, which the
+ * report also shows, so check the heap size before picking the model.
+ */
+public class FootprintProjection implements ObjectVisitor {
+
+    private final VMLayout[] models;
+    private final Map<Class<?>, ClassProjection> classes = new HashMap<Class<?>, ClassProjection>();
+
+    /**
+     * Projects onto {@link #defaultModels()}.
+     */
+    public FootprintProjection() {
+        this(defaultModels().toArray(new VMLayout[0]));
+    }
+
+    public FootprintProjection(VMLayout... models) {
+        if (models.length == 0) {
+            throw new IllegalArgumentException("Should have at least one model");
+        }
+        this.models = models.clone();
+    }
+
+    /**
+     * The usual choices for the 64-bit VMs, based on the running VM: compressed and uncompressed
+     * references, 16-byte alignment for the larger heaps with compressed references, and the
+     * compact object headers. Before JDK 15, turning off the compressed references also turns
+     * off the compressed class pointers, and the uncompressed model has the 8-byte ones.
+     */
+    public static List<VMLayout> defaultModels() {
+        VMLayout current = VMSupport.LAYOUT;
+        List<VMLayout> models = new ArrayList<VMLayout>();
+        if (current.getAddressSize() == 8) {
+            VMLayout compressed = current.withName("compressed").withReferenceSize(4).withKlassPointerSize(4).withObjectAlignment(8);
+            models.add(compressed);
+            models.add(compressed.withName("uncompressed").withReferenceSize(8)
+                    .withKlassPointerSize((VMLayout.javaVersion() < 15) ? 8 : 4));
+            models.add(compressed.withName("align-16").withObjectAlignment(16));
+            models.add(compressed.withName("compact").withKlassPointerSize(0).withWordAlignedArrays(false).withFillsSuperGaps(true));
+        } else {
+            models.add(current.withName("align-8").withObjectAlignment(8));
+            models.add(current.withName("align-16").withObjectAlignment(16));
+        }
+        return models;
+    }
+
+    @Override
+    public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+        ClassProjection p = classes.get(klass);
+        if (p == null) {
+            p = new ClassProjection(klass, models);
+            classes.put(klass, p);
+        }
+        p.add(obj, size);
+        return Action.CONTINUE;
+    }
+
+    public List<VMLayout> getModels() {
+        List<VMLayout> result = new ArrayList<VMLayout>();
+        Collections.addAll(result, models);
+        return result;
+    }
+
+    /**
+     * @return per-class projections, the largest current size first
+     */
+    public List<ClassProjection> getClasses() {
+        List<ClassProjection> result = new ArrayList<ClassProjection>(classes.values());
+        Collections.sort(result, new Comparator<ClassProjection>() {
+            @Override
+            public int compare(ClassProjection o1, ClassProjection o2) {
+                return (o1.size > o2.size) ? -1 : ((o1.size == o2.size) ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return total size in the running VM
+     */
+    public long getTotalSize() {
+        long total = 0;
+        for (ClassProjection p : classes.values()) {
+            total += p.size;
+        }
+        return total;
+    }
+
+    /**
+     * @param model index of the model, as given to the constructor
+     * @return total size under the model
+     */
+    public long getTotalSize(int model) {
+        long total = 0;
+        for (ClassProjection p : classes.values()) {
+            total += p.modelSizes[model];
+        }
+        return total;
+    }
+
+    public void print(PrintStream pw, int top) {
+        pw.println("Models:");
+        for (VMLayout m : models) {
+            long maxHeap = m.getMaxHeapSize();
+            pw.println("  " + m + ", " + ((maxHeap == Long.MAX_VALUE) ? "any heap size" : "heap up to " + (maxHeap >> 30) + " GB"));
+        }
+        pw.println();
+
+        pw.printf(" %10s %12s", "count", "current");
+        for (VMLayout m : models) {
+            pw.printf(" %12s", m.getName());
+        }
+        pw.println(" description");
+
+        List<ClassProjection> list = getClasses();
+        for (ClassProjection p : list.subList(0, Math.min(top, list.size()))) {
+            pw.printf(" %10d %12d", p.count, p.size);
+            for (long s : p.modelSizes) {
+                pw.printf(" %12d", s);
+            }
+            pw.println(" " + p.className);
+        }
+        if (list.size() > top) {
+            pw.println(" " + (list.size() - top) + " more classes");
+        }
+
+        long total = getTotalSize();
+        long count = 0;
+        for (ClassProjection p : list) {
+            count += p.count;
+        }
+        pw.printf(" %10d %12d", count, total);
+        for (int m = 0; m < models.length; m++) {
+            pw.printf(" %12d", getTotalSize(m));
+        }
+        pw.println(" (total)");
+
+        pw.printf(" %10s %12s", "", "");
+        for (int m = 0; m < models.length; m++) {
+            long diff = getTotalSize(m) - total;
+            pw.printf(" %12s", (total == 0) ? "" : String.format("%+.1f%%", diff * 100.0 / total));
+        }
+        pw.println(" (versus current)");
+    }
+
+    public static class ClassProjection {
+        private final String className;
+        private final VMLayout[] models;
+        private final int[] elementSizes;
+        private final int[] instanceSizes;
+        private final long[] modelSizes;
+        private long count;
+        private long size;
+
+        ClassProjection(Class<?> klass, VMLayout[] models) {
+            className = klass.getName();
+            this.models = models;
+            modelSizes = new long[models.length];
+            if (klass.isArray()) {
+                elementSizes = new int[models.length];
+                instanceSizes = null;
+                for (int m = 0; m < models.length; m++) {
+                    elementSizes[m] = models[m].sizeOfType(klass.getComponentType());
+                }
+            } else {
+                elementSizes = null;
+                instanceSizes = new int[models.length];
+                for (int m = 0; m < models.length; m++) {
+                    instanceSizes[m] = models[m].instanceSize(klass);
+                }
+            }
+        }
+
+        void add(Object obj, long size) {
+            count++;
+            this.size += size;
+            if (instanceSizes != null) {
+                for (int m = 0; m < modelSizes.length; m++) {
+                    modelSizes[m] += instanceSizes[m];
+                }
+            } else {
+                int length = Array.getLength(obj);
+                for (int m = 0; m < modelSizes.length; m++) {
+                    modelSizes[m] += models[m].arraySize(elementSizes[m], length);
+                }
+            }
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return total size in the running VM
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @param model index of the model, as given to the projection
+         * @return total size under the model
+         */
+        public long getSize(int model) {
+            return modelSizes[model];
+        }
+    }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.output.TextReportWriter;
+import net.shipilev.tools.objectlayout.util.MappedColumn;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Object graph saved in the file, for the offline analysis. The file is written
+ * sequentially during the breadth-first walk, and memory-mapped when opened, so that
+ * the queries do not need the graph itself on heap.
+ * <p>
+ * The file is the header, followed by the columns in this order:
+ * <pre>
+ *   header        "JOLS", version, nodes, edges, classes, fields: 6 ints; strings offset,
+ *                 time the walk was done in milliseconds: 2 longs
+ *   class ids     int[nodes]
+ *   sizes         long[nodes]
+ *   parents       int[nodes], breadth-first tree, -1 for the root
+ *   parent fields int[nodes], -1 for the root
+ *   edge starts   int[nodes + 1]
+ *   edges         int[edges]
+ *   strings       class names, then field names, as modified UTF-8
+ * </pre>
+ * When there is more than one root, node 0 is the synthetic "(roots)" node
+ * referencing all the roots.
+ */
+public class GraphSnapshot extends ObjectGraphIndex {
+
+    private static final int MAGIC = 0x4A4F4C53;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+
+    static final String ROOTS = "(roots)";
+
+    private final RandomAccessFile file;
+    private final long timestamp;
+    private final int nodeCount;
+    private final int edgeCount;
+    private final String[] classNames;
+    private final String[] fieldNames;
+
+    private final MappedColumn classIds;
+    private final MappedColumn sizes;
+    private final MappedColumn parents;
+    private final MappedColumn parentFields;
+    private final MappedColumn edgeStarts;
+    private final MappedColumn edges;
+
+    private GraphSnapshot(RandomAccessFile file) throws IOException {
+        this.file = file;
+
+        file.seek(0);
+        if (file.readInt() != MAGIC) {
+            throw new IOException("Not a graph snapshot");
+        }
+        int version = file.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported graph snapshot version: " + version);
+        }
+        nodeCount = file.readInt();
+        edgeCount = file.readInt();
+        classNames = new String[file.readInt()];
+        fieldNames = new String[file.readInt()];
+        long stringsOffset = file.readLong();
+        timestamp = file.readLong();
+
+        file.seek(stringsOffset);
+        for (int c = 0; c < classNames.length; c++) {
+            classNames[c] = file.readUTF();
+        }
+        for (int c = 0; c < fieldNames.length; c++) {
+            fieldNames[c] = file.readUTF();
+        }
+
+        FileChannel channel = file.getChannel();
+        long offset = HEADER_SIZE;
+        classIds = new MappedColumn(channel, offset, nodeCount, 4);
+        offset += 4L * nodeCount;
+        sizes = new MappedColumn(channel, offset, nodeCount, 8);
+        offset += 8L * nodeCount;
+        parents = new MappedColumn(channel, offset, nodeCount, 4);
+        offset += 4L * nodeCount;
+        parentFields = new MappedColumn(channel, offset, nodeCount, 4);
+        offset += 4L * nodeCount;
+        edgeStarts = new MappedColumn(channel, offset, nodeCount + 1, 4);
+        offset += 4L * (nodeCount + 1);
+        edges = new MappedColumn(channel, offset, edgeCount, 4);
+    }
+
+    public static GraphSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new GraphSnapshot(raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the file. The mappings are released by GC, do not query the snapshot after this.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public int size() {
+        return nodeCount;
+    }
+
+    public int getClassId(int id) {
+        return classIds.getInt(id);
+    }
+
+    public int getClassCount() {
+        return classNames.length;
+    }
+
+    public String getClassNameById(int classId) {
+        return classNames[classId];
+    }
+
+    @Override
+    public String getClassName(int id) {
+        return classNames[classIds.getInt(id)];
+    }
+
+    @Override
+    public long getShallowSize(int id) {
+        return sizes.getLong(id);
+    }
+
+    @Override
+    public int getParent(int id) {
+        return parents.getInt(id);
+    }
+
+    @Override
+    public int getParentField(int id) {
+        return parentFields.getInt(id);
+    }
+
+    @Override
+    public String getFieldName(int fieldId) {
+        return fieldNames[fieldId];
+    }
+
+    @Override
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    @Override
+    public int getEdgeStart(int id) {
+        return edgeStarts.getInt(id);
+    }
+
+    @Override
+    public int getEdgeEnd(int id) {
+        return edgeStarts.getInt(id + 1);
+    }
+
+    @Override
+    public int getEdge(int idx) {
+        return edges.getInt(idx);
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return instance counts and sizes per class, timestamped with the time the snapshot was taken
+     */
+    public ClassHistogram getHistogram() {
+        long[] counts = new long[classNames.length];
+        long[] totals = new long[classNames.length];
+        for (int id = 0; id < nodeCount; id++) {
+            int classId = classIds.getInt(id);
+            counts[classId]++;
+            totals[classId] += sizes.getLong(id);
+        }
+        return new ClassHistogram(classNames, counts, totals, timestamp);
+    }
+
+    /**
+     * Prints the instance counts and sizes per class, the largest first.
+     */
+    public void printHistogram(PrintStream pw, int top) {
+        ClassHistogram histogram = getHistogram();
+        long[] totals = new long[histogram.size()];
+        long count = 0;
+        long size = 0;
+        for (int c = 0; c < totals.length; c++) {
+            totals[c] = histogram.getSize(c);
+            count += histogram.getCount(c);
+            size += histogram.getSize(c);
+        }
+
+        TextReportWriter w = new TextReportWriter(pw);
+        for (int c : DominatorTree.topIndices(totals, top)) {
+            if (histogram.getCount(c) > 0) {
+                w.histogramRow(null, histogram.getName(c), histogram.getCount(c), histogram.getSize(c));
+            }
+        }
+        w.histogramEnd(null, count, size);
+        w.flush();
+    }
+
+    /**
+     * Prints the number of objects and their sizes at each distance from the root.
+     */
+    public void printDepths(PrintStream pw) {
+        int[] depths = new int[nodeCount];
+        long[] counts = new long[16];
+        long[] totals = new long[16];
+        int maxDepth = 0;
+        for (int id = 0; id < nodeCount; id++) {
+            int parent = parents.getInt(id);
+            int depth = (parent < 0) ? 0 : depths[parent] + 1;
+            depths[id] = depth;
+            if (depth >= counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+                totals = Arrays.copyOf(totals, totals.length * 2);
+            }
+            counts[depth]++;
+            totals[depth] += sizes.getLong(id);
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        pw.printf(" %5s %10s %12s\n", "depth", "count", "size");
+        for (int d = 0; d <= maxDepth; d++) {
+            pw.printf(" %5d %10d %12d\n", d, counts[d], totals[d]);
+        }
+    }
+
+    /**
+     * Walks the graph from the roots breadth-first, and saves it into the file.
+     * The columns are streamed into the temporary files next to the target,
+     * and then concatenated.
+     */
+    public static void write(File target, ObjectFilter filter, Object... roots) throws IOException {
+        new Writer(target, filter).write(roots);
+    }
+
+    private static class Writer {
+        private final File target;
+
+        private final BreadthFirstWalker walker;
+
+        private final File[] files = new File[6];
+        private final DataOutputStream[] columns = new DataOutputStream[6];
+        private long edgeCount;
+        private long timestamp;
+
+        Writer(File target, ObjectFilter filter) {
+            this.target = target;
+            this.walker = new BreadthFirstWalker(filter);
+        }
+
+        void write(Object[] roots) throws IOException {
+            try {
+                File dir = target.getAbsoluteFile().getParentFile();
+                for (int c = 0; c < columns.length; c++) {
+                    files[c] = File.createTempFile("snapshot-", ".column", dir);
+                    columns[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[c]), 64 * 1024));
+                }
+
+                walk(roots);
+                timestamp = System.currentTimeMillis();
+
+                for (DataOutputStream column : columns) {
+                    column.close();
+                }
+                concatenate();
+            } finally {
+                for (int c = 0; c < columns.length; c++) {
+                    if (columns[c] != null) {
+                        try {
+                            columns[c].close();
+                        } catch (IOException e) {
+                            // do nothing
+                        }
+                    }
+                    if (files[c] != null) {
+                        files[c].delete();
+                    }
+                }
+            }
+        }
+
+        private void walk(Object[] roots) throws IOException {
+            walker.walk(roots, new BreadthFirstWalker.Listener<IOException>() {
+                @Override
+                public void onNode(int id, Object o, int classId, long size, int parent, int field) throws IOException {
+                    columns[0].writeInt(classId);
+                    columns[1].writeLong(size);
+                    columns[2].writeInt(parent);
+                    columns[3].writeInt(field);
+                }
+
+                @Override
+                public void onExpand(int id) throws IOException {
+                    columns[4].writeInt((int) edgeCount);
+                }
+
+                @Override
+                public void onEdge(int from, int to) throws IOException {
+                    columns[5].writeInt(to);
+                    if (++edgeCount > Integer.MAX_VALUE) {
+                        throw new IllegalStateException("Too many edges: " + edgeCount);
+                    }
+                }
+            });
+            columns[4].writeInt((int) edgeCount);
+        }
+
+        private void concatenate() throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(target, "rw");
+            try {
+                raf.setLength(0);
+                FileChannel out = raf.getChannel();
+
+                long stringsOffset = HEADER_SIZE;
+                for (File f : files) {
+                    stringsOffset += f.length();
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(walker.size());
+                header.putInt((int) edgeCount);
+                header.putInt(walker.getClassNames().size());
+                header.putInt(walker.getFieldNames().size());
+                header.putLong(stringsOffset);
+                header.putLong(timestamp);
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+
+                for (File f : files) {
+                    FileInputStream in = new FileInputStream(f);
+                    try {
+                        FileChannel ch = in.getChannel();
+                        long pos = 0;
+                        long size = ch.size();
+                        while (pos < size) {
+                            pos += ch.transferTo(pos, size - pos, out);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+
+                DataOutputStream strings = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+                for (String s : walker.getClassNames()) {
+                    strings.writeUTF(s);
+                }
+                for (String s : walker.getFieldNames()) {
+                    strings.writeUTF(s);
+                }
+                strings.flush();
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-class differences between two histograms, e.g. taken minutes apart while
+ * hunting for a leak. The histograms are joined by the class name in one pass over
+ * each, and the top entries by the absolute size growth are selected in one more
+ * pass, so this stays linear in the number of classes.
+ */
+public class HistogramDiff {
+
+    private final String[] names;
+    private final long[] countsBefore;
+    private final long[] countsAfter;
+    private final long[] sizesBefore;
+    private final long[] sizesAfter;
+    private final boolean[] present;
+    private final long interval;
+
+    public HistogramDiff(Footprint before, Footprint after) {
+        this(ClassHistogram.of(before), ClassHistogram.of(after));
+    }
+
+    public HistogramDiff(ClassHistogram before, ClassHistogram after) {
+        Map<String, Integer> ids = new HashMap<String, Integer>(before.size() + after.size());
+
+        int capacity = before.size() + after.size();
+        String[] names = new String[capacity];
+        long[] countsBefore = new long[capacity];
+        long[] countsAfter = new long[capacity];
+        long[] sizesBefore = new long[capacity];
+        long[] sizesAfter = new long[capacity];
+        boolean[] present = new boolean[capacity];
+
+        int n = 0;
+        for (int i = 0; i < before.size(); i++) {
+            String name = before.getName(i);
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = n++;
+                ids.put(name, id);
+                names[id] = name;
+                present[id] = true;
+            }
+            countsBefore[id] += before.getCount(i);
+            sizesBefore[id] += before.getSize(i);
+        }
+        for (int i = 0; i < after.size(); i++) {
+            String name = after.getName(i);
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = n++;
+                ids.put(name, id);
+                names[id] = name;
+            }
+            countsAfter[id] += after.getCount(i);
+            sizesAfter[id] += after.getSize(i);
+        }
+
+        this.names = Arrays.copyOf(names, n);
+        this.countsBefore = Arrays.copyOf(countsBefore, n);
+        this.countsAfter = Arrays.copyOf(countsAfter, n);
+        this.sizesBefore = Arrays.copyOf(sizesBefore, n);
+        this.sizesAfter = Arrays.copyOf(sizesAfter, n);
+        this.present = Arrays.copyOf(present, n);
+        this.interval = after.getTimestamp() - before.getTimestamp();
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int idx) {
+        return names[idx];
+    }
+
+    public long getCountBefore(int idx) {
+        return countsBefore[idx];
+    }
+
+    public long getCountAfter(int idx) {
+        return countsAfter[idx];
+    }
+
+    public long getSizeBefore(int idx) {
+        return sizesBefore[idx];
+    }
+
+    public long getSizeAfter(int idx) {
+        return sizesAfter[idx];
+    }
+
+    public long getCountDelta(int idx) {
+        return countsAfter[idx] - countsBefore[idx];
+    }
+
+    public long getSizeDelta(int idx) {
+        return sizesAfter[idx] - sizesBefore[idx];
+    }
+
+    /**
+     * @return true, if the class was not in the first histogram
+     */
+    public boolean isNew(int idx) {
+        return !present[idx];
+    }
+
+    /**
+     * @return size growth in bytes per second, or 0 if the histograms were taken at the same time
+     */
+    public double getGrowthRate(int idx) {
+        return (interval > 0) ? getSizeDelta(idx) * 1000.0 / interval : 0;
+    }
+
+    /**
+     * @return time between the histograms, in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return indices of the classes with the largest absolute size change, the largest first
+     */
+    public int[] getTop(int top) {
+        long[] growth = new long[names.length];
+        for (int i = 0; i < growth.length; i++) {
+            growth[i] = Math.abs(getSizeDelta(i));
+        }
+        return DominatorTree.topIndices(growth, top);
+    }
+
+    public void print(PrintStream pw, int top) {
+        long countBefore = 0;
+        long countAfter = 0;
+        long sizeBefore = 0;
+        long sizeAfter = 0;
+        int newClasses = 0;
+        for (int i = 0; i < names.length; i++) {
+            countBefore += countsBefore[i];
+            countAfter += countsAfter[i];
+            sizeBefore += sizesBefore[i];
+            sizeAfter += sizesAfter[i];
+            if (!present[i]) newClasses++;
+        }
+
+        pw.printf(" %12s %12s %10s %10s %12s %s\n", "size-delta", "size", "count-delta", "count", "bytes/sec", "description");
+        for (int i : getTop(top)) {
+            if (getSizeDelta(i) == 0 && getCountDelta(i) == 0) continue;
+            pw.printf(" %+12d %12d %+10d %10d %12.0f %s%s\n", getSizeDelta(i), sizesAfter[i],
+                    getCountDelta(i), countsAfter[i], getGrowthRate(i), names[i],
+                    isNew(i) ? " (new)" : (countsAfter[i] == 0 ? " (gone)" : ""));
+        }
+        pw.printf(" %+12d %12d %+10d %10d %12.0f %s\n", sizeAfter - sizeBefore, sizeAfter,
+                countAfter - countBefore, countAfter,
+                (interval > 0) ? (sizeAfter - sizeBefore) * 1000.0 / interval : 0,
+                "(total, " + newClasses + " new classes, " + (interval / 1000) + " s apart)");
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Visited set over IdentityHashMap. Always reliable, but lives on the very heap we are
+ * measuring: IdentityHashMap keeps at most 2/3 of the slots occupied, and every slot takes
+ * two references, which makes 12..24 bytes per object with compressed references, and
+ * 24..48 bytes per object without them.
+ */
+public class IdentityVisitedSet implements VisitedSet {
+
+    private IdentityHashMap<Object, Boolean> map = new IdentityHashMap<Object, Boolean>();
+
+    @Override
+    public boolean add(Object o) {
+        return map.put(o, Boolean.TRUE) == null;
+    }
+
+    @Override
+    public boolean isReliable() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+        map = null;
+    }
+
+}
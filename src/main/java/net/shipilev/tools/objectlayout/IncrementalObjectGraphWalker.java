@@ -0,0 +1,631 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.ObjectLayout.FieldInfo;
+import net.shipilev.tools.objectlayout.util.IntList;
+import net.shipilev.tools.objectlayout.util.ObjectBuffer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the footprint of the mostly stable structure repeatedly, reusing the results
+ * of the previous walks for the parts which did not change.
+ * <p>
+ * The full walk builds the dominator tree, and remembers the subtrees which are exclusively
+ * owned by their root, at every level: the subtree is remembered when it has at least
+ * {@link #setCacheThreshold(int)} objects besides the ones in the remembered subtrees nested
+ * in it. For every such subtree, it keeps the digest of the shallow state of the root:
+ * the identity hashes of the referenced objects, the primitive field values, and the array
+ * length. The large reference arrays are digested in chunks of {@link #CHUNK} elements,
+ * along with the shallow state of the elements, and their subtree totals are kept per chunk
+ * as well. The next walks take the subtree totals as is when the root's digest is the same.
+ * Otherwise, they count the root, and descend into its references, where the nested subtrees
+ * and the array chunks with the same digests are taken as is again. This way, one put into
+ * a large HashMap only re-walks the changed chunk of its table. Immutable objects (String,
+ * boxed primitives) and primitive arrays are leaves which are fully described by their
+ * identity, so the references to them are checked the same way as any other. The roots of
+ * the remembered subtrees are only held weakly.
+ * <p>
+ * This is an approximation. The changes deeper inside the remembered subtree, which do not
+ * show in the shallow state of its root, are missed; e.g. replacing the value for the existing
+ * key in HashMap is caught when the entry is right in the table, but not when it is further
+ * down the bucket, and the nodes linked deep into the TreeMap or the queue are missed.
+ * The objects in the remembered subtree which had become shared with the rest of the graph
+ * are counted twice, up to the threshold per subtree; the other way around, the objects the
+ * subtree had shared with the rest of the graph are missed once the rest of the graph lets go
+ * of them. Reference changes which keep the identity hash digest are missed as well. All these
+ * errors go away with the full walk every {@link #setFullWalkInterval(int)} walks. The full
+ * walk needs the dominator tree, which is about 80 bytes per object on top of the walk itself.
+ * <p>
+ * The walks take the {@link WalkLimits}, except for the subtree budget. The pruned fields and
+ * classes are never followed, and the node, byte and time limits stop any walk, with the
+ * partial totals. The full walk stopped by the limits remembers nothing, and so does the full
+ * walk with the max depth, as the subtree totals then depend on where the subtree hangs:
+ * the next walk is the full one again.
+ */
+public class IncrementalObjectGraphWalker {
+
+    /**
+     * Number of elements in the separately digested chunk of the large reference array.
+     */
+    public static final int CHUNK = 256;
+
+    private final Object root;
+    private final ObjectFilter filter;
+
+    // the time limit is checked once per this many objects
+    private static final int DEADLINE_CHECK_MASK = 0xFFF;
+
+    private int cacheThreshold = 1024;
+    private int fullWalkInterval = 10;
+    private WalkLimits limits;
+
+    // remembered subtrees, open hash table by the identity hash of the root, chained
+    private Subtree[] cache = new Subtree[0];
+    private int walksSinceFull = -1;
+
+    public IncrementalObjectGraphWalker(Object root) {
+        this(root, null);
+    }
+
+    /**
+     * @param filter filter for the objects to take in besides the root; or null for
+     *               {@link ObjectFilters#defaults()}, which are created afresh for every walk
+     */
+    public IncrementalObjectGraphWalker(Object root, ObjectFilter filter) {
+        this.root = root;
+        this.filter = filter;
+    }
+
+    /**
+     * @param cacheThreshold the smallest number of objects in the subtree to remember,
+     *                       besides the ones in the nested remembered subtrees
+     */
+    public void setCacheThreshold(int cacheThreshold) {
+        if (cacheThreshold < 2) {
+            throw new IllegalArgumentException("Threshold should be at least 2: " + cacheThreshold);
+        }
+        this.cacheThreshold = cacheThreshold;
+    }
+
+    /**
+     * @param fullWalkInterval walk everything every this many walks
+     */
+    public void setFullWalkInterval(int fullWalkInterval) {
+        if (fullWalkInterval < 1) {
+            throw new IllegalArgumentException("Interval should be positive: " + fullWalkInterval);
+        }
+        this.fullWalkInterval = fullWalkInterval;
+    }
+
+    /**
+     * @param limits limits for the following walks, or null for none; drops the remembered subtrees
+     */
+    public void setLimits(WalkLimits limits) {
+        this.limits = limits;
+        reset();
+    }
+
+    /**
+     * Drops the remembered subtrees, so that the next walk is the full one.
+     */
+    public void reset() {
+        cache = new Subtree[0];
+        walksSinceFull = -1;
+    }
+
+    public Result walk() {
+        if (walksSinceFull < 0 || walksSinceFull + 1 >= fullWalkInterval) {
+            walksSinceFull = 0;
+            return fullWalk();
+        } else {
+            walksSinceFull++;
+            return incrementalWalk();
+        }
+    }
+
+    private ObjectFilter filter() {
+        return (filter != null) ? filter : ObjectFilters.defaults();
+    }
+
+    private Result fullWalk() {
+        IndexedObjectGraph graph = new IndexedObjectGraph(root, filter(), limits);
+        int n = graph.size();
+        if (graph.getLimitReached() != null || (limits != null && limits.getMaxDepth() != Integer.MAX_VALUE)) {
+            // the totals of the graph cut by the limits can not be reused
+            long totalSize = 0;
+            for (int id = 0; id < n; id++) {
+                totalSize += graph.getShallowSize(id);
+            }
+            reset();
+            return new Result(true, n, totalSize, n, 0, graph.getLimitReached());
+        }
+
+        DominatorTree tree = new DominatorTree(graph);
+
+        // objects in the dominator subtree, in total and outside the remembered subtrees
+        long[] counts = new long[n];
+        long[] uncached = new long[n];
+        long totalSize = 0;
+        for (int id = 0; id < n; id++) {
+            counts[id] = 1;
+            uncached[id] = 1;
+            totalSize += graph.getShallowSize(id);
+        }
+
+        // per node, the list of the remembered subtrees in its dominator subtree, which are not
+        // nested in another remembered one yet: the first and the last subtree, linked through next
+        int[] heads = new int[n];
+        int[] tails = new int[n];
+        Arrays.fill(heads, -1);
+        Arrays.fill(tails, -1);
+        List<Subtree> subtrees = new ArrayList<Subtree>();
+        IntList next = new IntList();
+        IntList chunks = new IntList();
+        int[] marks = null;
+
+        // the dominator always has the lower id, it is on the shortest path from the root,
+        // so going down the ids visits all the dominated nodes before their dominator
+        for (int id = n - 1; id >= 0; id--) {
+            if (uncached[id] >= cacheThreshold) {
+                Object o = graph.getObject(id);
+                Subtree subtree = new Subtree(o, counts[id], tree.getRetainedSize(id));
+
+                if (subtree.isChunked()) {
+                    if (marks == null) {
+                        marks = new int[n];
+                    }
+                    attributeChunks(subtree, (Object[]) o, id, graph, tree, counts, marks, heads, tails, next, chunks);
+                }
+
+                List<Subtree> nested = new ArrayList<Subtree>();
+                IntList nestedChunks = new IntList();
+                for (int e = heads[id]; e >= 0; e = (e == tails[id]) ? -1 : next.get(e)) {
+                    nested.add(subtrees.get(e));
+                    nestedChunks.add(chunks.get(e));
+                }
+                subtree.setNested(nested, nestedChunks);
+
+                int e = subtrees.size();
+                subtrees.add(subtree);
+                next.add(-1);
+                chunks.add(-1);
+                heads[id] = e;
+                tails[id] = e;
+                uncached[id] = 0;
+            }
+
+            if (id > 0) {
+                int idom = tree.getImmediateDominator(id);
+                counts[idom] += counts[id];
+                uncached[idom] += uncached[id];
+                if (heads[id] >= 0) {
+                    if (heads[idom] < 0) {
+                        heads[idom] = heads[id];
+                    } else {
+                        next.set(tails[idom], heads[id]);
+                    }
+                    tails[idom] = tails[id];
+                }
+            }
+        }
+
+        int capacity = 1;
+        while (capacity < subtrees.size() * 2) {
+            capacity <<= 1;
+        }
+        Subtree[] newCache = new Subtree[capacity];
+        for (Subtree subtree : subtrees) {
+            int idx = subtree.hash & (capacity - 1);
+            subtree.next = newCache[idx];
+            newCache[idx] = subtree;
+        }
+        cache = newCache;
+
+        return new Result(true, n, totalSize, n, 0, null);
+    }
+
+    /**
+     * Splits the subtree of the reference array into the chunks: every element dominated by the array
+     * goes with its whole dominator subtree into the chunk it is referenced from. The array which
+     * dominates the objects not referenced from it directly, or referenced from it twice, is not chunked.
+     */
+    private static void attributeChunks(Subtree subtree, Object[] array, int id, IndexedObjectGraph graph,
+                                        DominatorTree tree, long[] counts, int[] marks,
+                                        int[] heads, int[] tails, IntList next, IntList chunks) {
+        long attributed = 0;
+        for (int i = 0; i < array.length; i++) {
+            Object ref = array[i];
+            if (ref == null) continue;
+            int child = graph.getId(ref);
+            if (child < 0 || tree.getImmediateDominator(child) != id) continue;
+            if (marks[child] == id + 1) {
+                subtree.unchunk();
+                return;
+            }
+            marks[child] = id + 1;
+
+            int chunk = i / CHUNK;
+            subtree.chunkCounts[chunk] += counts[child];
+            subtree.chunkSizes[chunk] += tree.getRetainedSize(child);
+            attributed += counts[child];
+            for (int e = heads[child]; e >= 0; e = (e == tails[child]) ? -1 : next.get(e)) {
+                chunks.set(e, chunk);
+            }
+        }
+        if (attributed != subtree.count - 1) {
+            subtree.unchunk();
+        }
+    }
+
+    private Subtree lookup(Object o) {
+        if (cache.length == 0) return null;
+        int h = System.identityHashCode(o);
+        for (Subtree s = cache[h & (cache.length - 1)]; s != null; s = s.next) {
+            if (s.hash == h && s.get() == o) return s;
+        }
+        return null;
+    }
+
+    private Result incrementalWalk() {
+        ObjectFilter filter = filter();
+        VisitedSet visited = new IdentityVisitedSet();
+        ObjectBuffer stack = new ObjectBuffer();
+        ObjectBuffer claims = new ObjectBuffer();
+
+        long deadline = (limits == null || limits.getMaxTime() == Long.MAX_VALUE) ?
+                Long.MAX_VALUE : System.nanoTime() + limits.getMaxTime();
+        String limitReached = null;
+
+        long count = 0;
+        long size = 0;
+        long walked = 0;
+        int reused = 0;
+        long popped = 0;
+
+        try {
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                limitReached = checkLimits(count, size, deadline, ++popped);
+                if (limitReached != null) {
+                    break;
+                }
+
+                Object o = stack.removeLast();
+                if (!visited.add(o)) {
+                    continue;
+                }
+                if (o != root && (!filter.accept(o) || (limits != null && limits.isPrunedClass(o.getClass())))) {
+                    continue;
+                }
+
+                Subtree subtree = lookup(o);
+                if (subtree != null && subtree.digest == Subtree.digest(o)) {
+                    count += subtree.count;
+                    size += subtree.size;
+                    reused++;
+                    claim(subtree, -1, visited, claims);
+                    continue;
+                }
+
+                walked++;
+                count++;
+                size += sizeOf(o);
+
+                if (subtree == null || !subtree.isChunked()) {
+                    // the changed root of the remembered subtree is walked as any other object,
+                    // the unchanged subtrees nested in it are found as the walk gets to them
+                    pushReferences(o, stack);
+                    continue;
+                }
+
+                // changed array: walk the changed chunks, take the rest as is
+                Object[] array = (Object[]) o;
+                boolean[] pruned = (limits == null) ? null : limits.getPrunedFields(array.getClass());
+                for (int c = 0; c < subtree.chunkDigests.length; c++) {
+                    if (Subtree.digest(array, c) == subtree.chunkDigests[c]) {
+                        count += subtree.chunkCounts[c];
+                        size += subtree.chunkSizes[c];
+                        reused++;
+                        claim(subtree, c, visited, claims);
+                        continue;
+                    }
+                    pushElements(array, c * CHUNK, Math.min(array.length, (c + 1) * CHUNK), pruned, stack);
+                }
+            }
+            if (limitReached == null) {
+                limitReached = checkLimits(count, size, Long.MAX_VALUE, popped);
+            }
+        } finally {
+            visited.release();
+        }
+
+        return new Result(false, count, size, walked, reused, limitReached);
+    }
+
+    /**
+     * @return the limit reached, or null
+     */
+    private String checkLimits(long count, long size, long deadline, long popped) {
+        if (limits == null) {
+            return null;
+        }
+        if (count >= limits.getMaxNodes()) {
+            return "max nodes (" + limits.getMaxNodes() + ")";
+        }
+        if (size >= limits.getMaxBytes()) {
+            return "max bytes (" + limits.getMaxBytes() + ")";
+        }
+        if (deadline != Long.MAX_VALUE && (popped & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline) {
+            return "max time (" + limits.getMaxTime() + " ns)";
+        }
+        return null;
+    }
+
+    /**
+     * Marks the roots of the remembered subtrees nested in the reused one, or in its chunk, as visited.
+     * The walk which gets into the reused subtree through the new references then stops at them,
+     * and does not count them again.
+     */
+    private static void claim(Subtree subtree, int chunk, VisitedSet visited, ObjectBuffer claims) {
+        for (int i = 0; i < subtree.nested.length; i++) {
+            if (chunk < 0 || subtree.nestedChunks[i] == chunk) {
+                claims.add(subtree.nested[i]);
+            }
+        }
+        while (!claims.isEmpty()) {
+            Subtree s = (Subtree) claims.removeLast();
+            Object o = s.get();
+            if (o != null) {
+                visited.add(o);
+            }
+            for (Subtree n : s.nested) {
+                claims.add(n);
+            }
+        }
+    }
+
+    private static long sizeOf(Object o) {
+        try {
+            return ObjectLayout.sizeOf(o);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private void pushReferences(Object o, ObjectBuffer stack) {
+        Class<?> klass = o.getClass();
+        boolean[] pruned = (limits == null) ? null : limits.getPrunedFields(klass);
+        if (klass.isArray()) {
+            if (!klass.getComponentType().isPrimitive()) {
+                Object[] array = (Object[]) o;
+                pushElements(array, 0, array.length, pruned, stack);
+            }
+            return;
+        }
+
+        long[] offsets = ClassLayout.of(klass).getReferenceOffsets();
+        for (int c = 0; c < offsets.length; c++) {
+            if (pruned != null && pruned[c]) continue;
+            Object ref = VMSupport.U.getObject(o, offsets[c]);
+            if (ref != null) {
+                stack.add(ref);
+            }
+        }
+    }
+
+    private static void pushElements(Object[] array, int from, int to, boolean[] pruned, ObjectBuffer stack) {
+        if (pruned != null && pruned[0]) return;
+        for (int i = from; i < to; i++) {
+            if (array[i] != null) {
+                stack.add(array[i]);
+            }
+        }
+    }
+
+    /**
+     * Subtree totals, and the digest of the shallow state of its root at the time they were taken.
+     * The root is only referenced weakly, the subtree is dropped with the next full walk.
+     */
+    private static class Subtree extends WeakReference<Object> {
+        private static final Subtree[] NONE = new Subtree[0];
+
+        private final int hash;
+        private final long count;
+        private final long size;
+        private final long digest;
+        private Subtree next;
+
+        // large reference arrays only: digest and totals per chunk of elements
+        private long[] chunkDigests;
+        private long[] chunkCounts;
+        private long[] chunkSizes;
+
+        // remembered subtrees nested in this one, and the chunks they are in
+        private Subtree[] nested = NONE;
+        private int[] nestedChunks;
+
+        Subtree(Object o, long count, long size) {
+            super(o);
+            this.hash = System.identityHashCode(o);
+            this.count = count;
+            this.size = size;
+            this.digest = digest(o);
+
+            Class<?> klass = o.getClass();
+            if (klass.isArray() && !klass.getComponentType().isPrimitive()) {
+                Object[] array = (Object[]) o;
+                int n = (array.length + CHUNK - 1) / CHUNK;
+                if (n > 1) {
+                    chunkDigests = new long[n];
+                    for (int c = 0; c < n; c++) {
+                        chunkDigests[c] = digest(array, c);
+                    }
+                    chunkCounts = new long[n];
+                    chunkSizes = new long[n];
+                }
+            }
+        }
+
+        boolean isChunked() {
+            return chunkDigests != null;
+        }
+
+        void unchunk() {
+            chunkDigests = null;
+            chunkCounts = null;
+            chunkSizes = null;
+        }
+
+        void setNested(List<Subtree> nested, IntList chunks) {
+            if (nested.isEmpty()) return;
+            this.nested = nested.toArray(new Subtree[nested.size()]);
+            this.nestedChunks = new int[chunks.size()];
+            for (int i = 0; i < nestedChunks.length; i++) {
+                nestedChunks[i] = chunks.get(i);
+            }
+        }
+
+        static long digest(Object o) {
+            Class<?> klass = o.getClass();
+            if (klass.isArray()) {
+                int length = java.lang.reflect.Array.getLength(o);
+                if (klass.getComponentType().isPrimitive()) {
+                    return length;
+                }
+                long h = length;
+                for (int c = 0; c * CHUNK < length; c++) {
+                    h = h * 0x9E3779B97F4A7C15L + digest((Object[]) o, c);
+                }
+                return h;
+            }
+
+            long h = 0;
+            for (FieldInfo f : ClassLayout.of(klass).getFields()) {
+                long v;
+                if (!f.isPrimitive()) {
+                    v = identity(VMSupport.U.getObject(o, (long) f.getOffset()));
+                } else {
+                    switch (f.getSize()) {
+                        case 1:  v = VMSupport.U.getByte(o, (long) f.getOffset());  break;
+                        case 2:  v = VMSupport.U.getShort(o, (long) f.getOffset()); break;
+                        case 4:  v = VMSupport.U.getInt(o, (long) f.getOffset());   break;
+                        default: v = VMSupport.U.getLong(o, (long) f.getOffset());  break;
+                    }
+                }
+                h = h * 0x9E3779B97F4A7C15L + v;
+            }
+            return h;
+        }
+
+        /**
+         * Digests the identities of the elements, and the shallow state of the elements
+         * which are not arrays themselves, so that e.g. the new value in the existing
+         * HashMap entry changes the digest of the table chunk.
+         */
+        static long digest(Object[] array, int chunk) {
+            int end = Math.min(array.length, (chunk + 1) * CHUNK);
+            long h = 0;
+            for (int i = chunk * CHUNK; i < end; i++) {
+                Object e = array[i];
+                h = h * 0x9E3779B97F4A7C15L + identity(e);
+                if (e != null && !e.getClass().isArray()) {
+                    h = h * 0x9E3779B97F4A7C15L + digest(e);
+                }
+            }
+            return h;
+        }
+
+        private static long identity(Object o) {
+            // tell null from the zero identity hash
+            return (o == null) ? 0 : (1L << 32) | (System.identityHashCode(o) & 0xFFFFFFFFL);
+        }
+    }
+
+    public static class Result {
+        private final boolean full;
+        private final long totalCount;
+        private final long totalSize;
+        private final long walkedNodes;
+        private final int reusedSubtrees;
+        private final String limitReached;
+
+        Result(boolean full, long totalCount, long totalSize, long walkedNodes, int reusedSubtrees,
+               String limitReached) {
+            this.full = full;
+            this.totalCount = totalCount;
+            this.totalSize = totalSize;
+            this.walkedNodes = walkedNodes;
+            this.reusedSubtrees = reusedSubtrees;
+            this.limitReached = limitReached;
+        }
+
+        /**
+         * @return true, if this was the full walk
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * @return number of objects actually visited by this walk
+         */
+        public long getWalkedNodes() {
+            return walkedNodes;
+        }
+
+        /**
+         * @return number of remembered subtrees and array chunks taken as is
+         */
+        public int getReusedSubtrees() {
+            return reusedSubtrees;
+        }
+
+        /**
+         * @return the limit which had stopped the walk, e.g. "max nodes (1000)"; or null,
+         * if the totals are complete
+         */
+        public String getLimitReached() {
+            return limitReached;
+        }
+
+        @Override
+        public String toString() {
+            return (full ? "full" : "incremental") + " walk: " + totalCount + " objects, " + totalSize + " bytes; " +
+                    "walked " + walkedNodes + " objects, reused " + reusedSubtrees + " subtrees" +
+                    ((limitReached != null) ? "; stopped at " + limitReached : "");
+        }
+    }
+
+}
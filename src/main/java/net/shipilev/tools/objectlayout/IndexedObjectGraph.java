@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.IdentityIntMap;
+import net.shipilev.tools.objectlayout.util.IntList;
+import net.shipilev.tools.objectlayout.util.LongList;
+import net.shipilev.tools.objectlayout.util.ObjectBuffer;
+
+import java.util.List;
+
+/**
+ * Reachable object graph with all the edges, for the analyses that need more than a
+ * single pass over the objects. The nodes are numbered in the breadth-first order from
+ * the root, the root being node 0. Everything per node and per edge is kept in primitive
+ * arrays: about 20 bytes per node for the sizes, the breadth-first tree and the edge index,
+ * plus 4 bytes per edge, plus the identity map from objects to nodes.
+ */
+public class IndexedObjectGraph extends ObjectGraphIndex {
+
+    private final IdentityIntMap ids;
+    private final ObjectBuffer nodes;
+    private final LongList sizes = new LongList();
+    private final IntList parents = new IntList();
+    private final IntList parentFields = new IntList();
+    private final IntList edgeStarts = new IntList();
+    private final IntList edges = new IntList();
+    private final List<String> fieldNames;
+    private final String limitReached;
+
+    public IndexedObjectGraph(Object root) {
+        this(root, ObjectFilters.acceptAll());
+    }
+
+    /**
+     * @param root root to walk from, always taken in
+     * @param filter filter for the other objects to take in
+     */
+    public IndexedObjectGraph(Object root, ObjectFilter filter) {
+        this(root, filter, null);
+    }
+
+    /**
+     * @param root root to walk from, always taken in
+     * @param filter filter for the other objects to take in
+     * @param limits limits for the walk, or null for none; the subtree budget does not apply
+     */
+    IndexedObjectGraph(Object root, ObjectFilter filter, WalkLimits limits) {
+        BreadthFirstWalker walker = new BreadthFirstWalker(filter, limits, true);
+        walker.walk(new Object[]{root}, new BreadthFirstWalker.Listener<RuntimeException>() {
+            @Override
+            public void onNode(int id, Object o, int classId, long size, int parent, int field) {
+                sizes.add(size);
+                parents.add(parent);
+                parentFields.add(field);
+            }
+
+            @Override
+            public void onExpand(int id) {
+                edgeStarts.add(edges.size());
+            }
+
+            @Override
+            public void onEdge(int from, int to) {
+                edges.add(to);
+            }
+        });
+        edgeStarts.add(edges.size());
+
+        ids = walker.getIds();
+        nodes = walker.getObjects();
+        fieldNames = walker.getFieldNames();
+        limitReached = walker.getLimitReached();
+
+        edgeStarts.trim();
+        edges.trim();
+        sizes.trim();
+        parents.trim();
+        parentFields.trim();
+    }
+
+    /**
+     * @return the limit which had stopped the walk, or null
+     */
+    String getLimitReached() {
+        return limitReached;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    public Object getObject(int id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * @return node id for the object, or -1 if the object is not in the graph
+     */
+    public int getId(Object o) {
+        return ids.get(o);
+    }
+
+    @Override
+    public String getClassName(int id) {
+        return nodes.get(id).getClass().getName();
+    }
+
+    @Override
+    public long getShallowSize(int id) {
+        return sizes.get(id);
+    }
+
+    @Override
+    public int getParent(int id) {
+        return parents.get(id);
+    }
+
+    @Override
+    public int getParentField(int id) {
+        return parentFields.get(id);
+    }
+
+    @Override
+    public String getFieldName(int fieldId) {
+        return fieldNames.get(fieldId);
+    }
+
+    @Override
+    public int getFieldCount() {
+        return fieldNames.size();
+    }
+
+    @Override
+    public int getEdgeStart(int id) {
+        return edgeStarts.get(id);
+    }
+
+    @Override
+    public int getEdgeEnd(int id) {
+        return edgeStarts.get(id + 1);
+    }
+
+    @Override
+    public int getEdge(int idx) {
+        return edges.get(idx);
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edges.size();
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tells where the live objects lose the space to field alignment and padding, and estimates
+ * how much the simple layout changes would save on heap. The instance counts, and the field
+ * values that tell if the change is safe, come from the walk over the live objects.
+ * Only the fields declared in the application classes are suggested to change, the fields
+ * of the JDK classes and superclasses are taken as they are.
+ * <p>
+ * The alternatives are estimated with the packing model of the running VM, see {@link VMLayout}.
+ * The saving is the difference between the model sizes for the current and the changed layout,
+ * so the model errors mostly cancel out.
+ * <ul>
+ *     <li>hoisting: the fields from the application part of the hierarchy are packed as if declared
+ *     in its topmost class; the JDK superclasses, like {@code AbstractMap}, stay as they are;</li>
+ *     <li>narrowing: long fields which only had int values in all instances become ints;</li>
+ *     <li>unboxing: boxed fields which were never null become primitives, and the boxes
+ *     outside the JDK box caches are gone; the boxes are assumed not to be shared.</li>
+ * </ul>
+ */
+public class LayoutAdvisor implements ObjectVisitor {
+
+    private final Map<Class<?>, ClassStats> classes = new HashMap<Class<?>, ClassStats>();
+
+    /**
+     * Walks the objects reachable from the roots, taking in only the objects accepted by the filter.
+     */
+    public static LayoutAdvisor of(ObjectFilter filter, Object... roots) {
+        LayoutAdvisor advisor = new LayoutAdvisor();
+        new ObjectGraphWalker(roots, filter, new IdentityVisitedSet()).walk(advisor);
+        return advisor;
+    }
+
+    @Override
+    public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+        if (!klass.isArray()) {
+            ClassStats stats = classes.get(klass);
+            if (stats == null) {
+                stats = new ClassStats(klass);
+                classes.put(klass, stats);
+            }
+            stats.observe(obj);
+        }
+        return Action.CONTINUE;
+    }
+
+    /**
+     * @return classes which lose any space to padding, the largest total loss first
+     */
+    public List<ClassWaste> getWaste() {
+        List<ClassWaste> result = new ArrayList<ClassWaste>();
+        for (ClassStats stats : classes.values()) {
+            if (stats.waste > 0) {
+                result.add(new ClassWaste(stats.name, stats.count, stats.instanceSize, stats.waste));
+            }
+        }
+        Collections.sort(result, new Comparator<ClassWaste>() {
+            @Override
+            public int compare(ClassWaste o1, ClassWaste o2) {
+                return compareDesc(o1.getTotalWaste(), o2.getTotalWaste());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return layout changes which save anything, the largest saving first
+     */
+    public List<Suggestion> getSuggestions() {
+        List<Suggestion> result = new ArrayList<Suggestion>();
+        for (ClassStats stats : classes.values()) {
+            stats.suggest(result);
+        }
+        Collections.sort(result, new Comparator<Suggestion>() {
+            @Override
+            public int compare(Suggestion o1, Suggestion o2) {
+                return compareDesc(o1.getSaved(), o2.getSaved());
+            }
+        });
+        return result;
+    }
+
+    private static int compareDesc(long v1, long v2) {
+        return (v1 > v2) ? -1 : ((v1 == v2) ? 0 : 1);
+    }
+
+    public void print(PrintStream pw, int top) {
+        List<ClassWaste> waste = getWaste();
+        long totalWaste = 0;
+        for (ClassWaste w : waste) {
+            totalWaste += w.getTotalWaste();
+        }
+
+        pw.println("Padding and alignment loss, by the total on heap:");
+        pw.printf(" %10s %5s %5s %12s %s\n", "count", "size", "loss", "total-loss", "description");
+        for (ClassWaste w : waste.subList(0, Math.min(top, waste.size()))) {
+            pw.printf(" %10d %5d %5d %12d %s\n", w.getCount(), w.getInstanceSize(), w.getWaste(), w.getTotalWaste(), w.getClassName());
+        }
+        pw.printf(" %10s %5s %5s %12d %s\n", "", "", "", totalWaste, "(total)");
+        pw.println();
+
+        List<Suggestion> suggestions = getSuggestions();
+        pw.println("Layout changes, by the estimated heap saved:");
+        pw.printf(" %10s %5s %12s %12s %s\n", "count", "saved", "boxes-saved", "total-saved", "description");
+        for (Suggestion s : suggestions.subList(0, Math.min(top, suggestions.size()))) {
+            pw.printf(" %10d %5d %12d %12d %s: %s\n", s.getCount(), s.getSavedPerInstance(), s.getSavedBoxes(), s.getSaved(),
+                    s.getClassName(), s.getDescription());
+        }
+    }
+
+    private static int primitiveSize(Class<?> boxed) {
+        if (boxed == Boolean.class)   return 1;
+        if (boxed == Byte.class)      return 1;
+        if (boxed == Short.class)     return 2;
+        if (boxed == Character.class) return 2;
+        if (boxed == Integer.class)   return 4;
+        if (boxed == Float.class)     return 4;
+        if (boxed == Long.class)      return 8;
+        if (boxed == Double.class)    return 8;
+        return -1;
+    }
+
+    /**
+     * @return true, if the box comes from the JDK box cache, and so unboxing does not free it
+     */
+    private static boolean isCached(Object box) {
+        if (box instanceof Boolean || box instanceof Byte) return true;
+        if (box instanceof Character) return (Character) box <= 127;
+        if (box instanceof Short || box instanceof Integer || box instanceof Long) {
+            long v = ((Number) box).longValue();
+            return v >= -128 && v <= 127;
+        }
+        return false;
+    }
+
+    private static class Slot {
+        private final String name;
+        private final int level;
+        private final int index;
+        private final long offset;
+        private final Class<?> type;
+
+        // observed in all the instances
+        private boolean fitsInt = true;
+        private boolean nullable;
+        private long boxBytes;
+
+        Slot(String name, int level, int index, long offset, Class<?> type) {
+            this.name = name;
+            this.level = level;
+            this.index = index;
+            this.offset = offset;
+            this.type = type;
+        }
+    }
+
+    private static class ClassStats {
+        private final String name;
+        private final int instanceSize;
+        private final int waste;
+        private final List<int[]> levels = new ArrayList<int[]>();
+        private int firstOwnLevel;
+        private String topmostOwn;
+        private final List<Slot> longs = new ArrayList<Slot>();
+        private final List<Slot> boxes = new ArrayList<Slot>();
+        private long count;
+
+        ClassStats(Class<?> klass) {
+            name = klass.getName();
+
+            ClassLayout layout = ClassLayout.of(klass);
+            instanceSize = layout.getInstanceSize();
+
+            int nextFree = VMSupport.HEADER_SIZE;
+            int lost = 0;
+            for (ObjectLayout.FieldInfo f : layout.getFields()) {
+                if (f.getOffset() > nextFree) {
+                    lost += f.getOffset() - nextFree;
+                }
+                nextFree = f.getOffset() + f.getSize();
+            }
+            waste = lost + VMSupport.align(nextFree) - nextFree;
+
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> k = klass; k != null; k = k.getSuperclass()) {
+                hierarchy.add(0, k);
+            }
+            for (Class<?> k : hierarchy) {
+                if (topmostOwn == null) {
+                    if (isJdk(k)) {
+                        firstOwnLevel = levels.size() + 1;
+                    } else {
+                        topmostOwn = k.getName();
+                    }
+                }
+
+                List<Field> fields = new ArrayList<Field>();
+                for (Field f : k.getDeclaredFields()) {
+                    if (!Modifier.isStatic(f.getModifiers())) {
+                        fields.add(f);
+                    }
+                }
+
+                int[] sizes = new int[fields.size()];
+                for (int i = 0; i < sizes.length; i++) {
+                    Field f = fields.get(i);
+                    Class<?> type = f.getType();
+                    sizes[i] = VMSupport.sizeOfType(type);
+                    if (isJdk(k)) {
+                        continue;
+                    }
+                    if (type == long.class) {
+                        longs.add(new Slot(f.getName(), levels.size(), i, VMSupport.U.objectFieldOffset(f), type));
+                    } else if (primitiveSize(type) > 0) {
+                        boxes.add(new Slot(f.getName(), levels.size(), i, VMSupport.U.objectFieldOffset(f), type));
+                    }
+                }
+                levels.add(sizes);
+            }
+
+        }
+
+        void observe(Object o) {
+            count++;
+            for (Slot s : longs) {
+                long v = VMSupport.U.getLong(o, s.offset);
+                if (v != (int) v) {
+                    s.fitsInt = false;
+                }
+            }
+            for (Slot s : boxes) {
+                Object box = VMSupport.U.getObject(o, s.offset);
+                if (box == null) {
+                    s.nullable = true;
+                } else if (!isCached(box)) {
+                    try {
+                        s.boxBytes += ObjectLayout.sizeOf(box);
+                    } catch (Exception e) {
+                        // do nothing
+                    }
+                }
+            }
+        }
+
+        void suggest(List<Suggestion> result) {
+            int base = VMSupport.LAYOUT.instanceSize(levels);
+
+            int nonEmpty = 0;
+            int[] all = new int[0];
+            for (int[] level : levels.subList(firstOwnLevel, levels.size())) {
+                if (level.length > 0) nonEmpty++;
+                int[] merged = Arrays.copyOf(all, all.length + level.length);
+                System.arraycopy(level, 0, merged, all.length, level.length);
+                all = merged;
+            }
+            if (nonEmpty > 1) {
+                List<int[]> hoisted = new ArrayList<int[]>(levels.subList(0, firstOwnLevel));
+                hoisted.add(all);
+                add(result, "hoist the fields into " + topmostOwn, base - VMSupport.LAYOUT.instanceSize(hoisted), 0);
+            }
+
+            List<int[]> narrowed = copy(levels);
+            StringBuilder names = new StringBuilder();
+            for (Slot s : longs) {
+                if (s.fitsInt) {
+                    narrowed.get(s.level)[s.index] = 4;
+                    names.append(names.length() > 0 ? ", " : "").append(s.name);
+                }
+            }
+            if (names.length() > 0) {
+                add(result, "narrow long to int: " + names, base - VMSupport.LAYOUT.instanceSize(narrowed), 0);
+            }
+
+            List<int[]> unboxed = copy(levels);
+            names = new StringBuilder();
+            long boxBytes = 0;
+            for (Slot s : boxes) {
+                if (!s.nullable) {
+                    unboxed.get(s.level)[s.index] = primitiveSize(s.type);
+                    names.append(names.length() > 0 ? ", " : "").append(s.type.getSimpleName()).append(" ").append(s.name);
+                    boxBytes += s.boxBytes;
+                }
+            }
+            if (names.length() > 0) {
+                add(result, "unbox the non-null fields: " + names, base - VMSupport.LAYOUT.instanceSize(unboxed), boxBytes);
+            }
+        }
+
+        private void add(List<Suggestion> result, String description, int savedPerInstance, long savedBoxes) {
+            savedPerInstance = Math.max(0, savedPerInstance);
+            if (savedPerInstance > 0 || savedBoxes > 0) {
+                result.add(new Suggestion(name, description, count, savedPerInstance, savedBoxes));
+            }
+        }
+
+        /**
+         * The JDK classes come from the bootstrap loader; their fields can not be changed.
+         */
+        private static boolean isJdk(Class<?> k) {
+            return k.getClassLoader() == null;
+        }
+
+        private static List<int[]> copy(List<int[]> levels) {
+            List<int[]> result = new ArrayList<int[]>();
+            for (int[] level : levels) {
+                result.add(level.clone());
+            }
+            return result;
+        }
+    }
+
+    public static class ClassWaste {
+        private final String className;
+        private final long count;
+        private final int instanceSize;
+        private final int waste;
+
+        ClassWaste(String className, long count, int instanceSize, int waste) {
+            this.className = className;
+            this.count = count;
+            this.instanceSize = instanceSize;
+            this.waste = waste;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public int getInstanceSize() {
+            return instanceSize;
+        }
+
+        /**
+         * @return bytes lost to the field gaps and the object alignment, per instance
+         */
+        public int getWaste() {
+            return waste;
+        }
+
+        public long getTotalWaste() {
+            return waste * count;
+        }
+    }
+
+    public static class Suggestion {
+        private final String className;
+        private final String description;
+        private final long count;
+        private final int savedPerInstance;
+        private final long savedBoxes;
+
+        Suggestion(String className, String description, long count, int savedPerInstance, long savedBoxes) {
+            this.className = className;
+            this.description = description;
+            this.count = count;
+            this.savedPerInstance = savedPerInstance;
+            this.savedBoxes = savedBoxes;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public int getSavedPerInstance() {
+            return savedPerInstance;
+        }
+
+        /**
+         * @return bytes taken by the boxes which go away
+         */
+        public long getSavedBoxes() {
+            return savedBoxes;
+        }
+
+        /**
+         * @return estimated bytes saved on heap
+         */
+        public long getSaved() {
+            return savedPerInstance * count + savedBoxes;
+        }
+    }
+
+}
@@ -21,20 +21,80 @@
  */
 package net.shipilev.tools.objectlayout;
 
+import net.shipilev.tools.objectlayout.output.ReportFormat;
+import net.shipilev.tools.objectlayout.output.ReportWriter;
+
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MainAnalyzer {
 
     public static void main(String[] args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Usage: java-object-layout.jar [class-name]");
+        ReportFormat format = ReportFormat.TEXT;
+        int arg = 0;
+        if (args.length > 1 && args[0].equals("-format")) {
+            format = ReportFormat.parse(args[1]);
+            arg = 2;
+        }
+
+        if (args.length <= arg) {
+            System.err.println("Usage: java-object-layout.jar [-format text|json|csv|binary] [class-name]");
+            System.err.println("       java-object-layout.jar -cachelines [-line N] [-hot field]... [class-name]");
+            System.err.println("       java-object-layout.jar [-format text|json|csv|binary] -batch [-threads N] [class-name | @class-list | package.* | jar-or-dir]...");
             System.exit(1);
         }
 
-        PrintStream out = System.out;
+        if (args[arg].equals("-batch")) {
+            BatchAnalyzer.main(BatchAnalyzer.Mode.LAYOUT, format, Arrays.copyOfRange(args, arg + 1, args.length));
+            return;
+        }
+
+        if (args[arg].equals("-cachelines")) {
+            cacheLines(Arrays.copyOfRange(args, arg + 1, args.length));
+            return;
+        }
+
+        if (format.isText()) {
+            PrintStream out = System.out;
+
+            VMSupport.detect(out);
+            ObjectLayout.analyze(out, Class.forName(args[arg]));
+        } else {
+            VMSupport.detect(System.err);
+
+            ReportWriter w = format.openStandardOutput();
+            ObjectLayout.analyze(w, Class.forName(args[arg]));
+            w.flush();
+        }
+    }
+
+    private static void cacheLines(String[] args) throws Exception {
+        int lineSize = CacheLineAnalyzer.DEFAULT_LINE_SIZE;
+        List<String> hot = new ArrayList<String>();
+        int arg = 0;
+        while (arg < args.length - 1) {
+            if (args[arg].equals("-line")) {
+                lineSize = Integer.parseInt(args[arg + 1]);
+            } else if (args[arg].equals("-hot")) {
+                hot.add(args[arg + 1]);
+            } else {
+                break;
+            }
+            arg += 2;
+        }
+        if (arg != args.length - 1) {
+            System.err.println("Usage: java-object-layout.jar -cachelines [-line N] [-hot field]... [class-name]");
+            System.exit(1);
+        }
 
-        VMSupport.detect(out);
-        ObjectLayout.analyze(out, Class.forName(args[0]));
+        VMSupport.detect(System.out);
+        CacheLineAnalyzer analyzer = new CacheLineAnalyzer(Class.forName(args[arg]), lineSize);
+        for (String name : hot) {
+            analyzer.markHot(name);
+        }
+        analyzer.print(System.out);
     }
 
 }
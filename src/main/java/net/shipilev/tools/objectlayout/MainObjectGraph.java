@@ -21,15 +21,70 @@
  */
 package net.shipilev.tools.objectlayout;
 
+import net.shipilev.tools.objectlayout.output.ReportFormat;
+import net.shipilev.tools.objectlayout.output.ReportWriter;
+
+import java.util.Arrays;
+
 public class MainObjectGraph {
 
     public static void main(String[] args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Usage: java-object-graph.jar [class-name]");
+        ReportFormat format = ReportFormat.TEXT;
+        int arg = 0;
+        if (args.length > 1 && args[0].equals("-format")) {
+            format = ReportFormat.parse(args[1]);
+            arg = 2;
+        }
+
+        if (args.length <= arg) {
+            System.err.println("Usage: java-object-graph.jar [-format text|json|csv|binary] [-retained | -advise | -arrays | -whatif] [class-name]");
+            System.err.println("       java-object-graph.jar -paths [class-name] [held-class-name]");
+            System.err.println("       java-object-graph.jar [-format text|json|csv|binary] -batch [-threads N] [class-name | @class-list | package.* | jar-or-dir]...");
+            System.exit(1);
+        }
+        if (args[arg].equals("-batch")) {
+            BatchAnalyzer.main(BatchAnalyzer.Mode.GRAPH, format, Arrays.copyOfRange(args, arg + 1, args.length));
+            return;
+        }
+
+        if (args[arg].equals("-retained") && args.length > arg + 1) {
+            startText(format, "Retained sizes");
+            ObjectGraph.analyzeRetained(System.out, Class.forName(args[arg + 1]), 20);
+        } else if (args[arg].equals("-advise") && args.length > arg + 1) {
+            startText(format, "Layout advice");
+            ObjectGraph.analyzeLayouts(System.out, Class.forName(args[arg + 1]), 20);
+        } else if (args[arg].equals("-paths") && args.length > arg + 1) {
+            startText(format, "Field paths");
+            ObjectGraph.analyzePaths(System.out, Class.forName(args[arg + 1]),
+                    (args.length > arg + 2) ? args[arg + 2] : null, 20);
+        } else if (args[arg].equals("-whatif") && args.length > arg + 1) {
+            startText(format, "Footprint projections");
+            ObjectGraph.analyzeProjections(System.out, Class.forName(args[arg + 1]), 20);
+        } else if (args[arg].equals("-arrays") && args.length > arg + 1) {
+            startText(format, "Array histograms");
+            ObjectGraph.analyzeArrays(System.out, Class.forName(args[arg + 1]));
+        } else if (format.isText()) {
+            VMSupport.detect(System.out);
+            ObjectGraph.analyze(System.out, Class.forName(args[arg]));
+        } else {
+            VMSupport.detect(System.err);
+
+            ReportWriter w = format.openStandardOutput();
+            ObjectGraph.analyze(w, Class.forName(args[arg]));
+            w.flush();
+        }
+    }
+
+    /**
+     * Prints the VM details before the report which only comes as text, or exits
+     * if the other format was asked for.
+     */
+    private static void startText(ReportFormat format, String report) {
+        if (!format.isText()) {
+            System.err.println(report + " can only be printed as text");
             System.exit(1);
         }
         VMSupport.detect(System.out);
-        ObjectGraph.analyze(System.out, Class.forName(args[0]));
     }
 
 }
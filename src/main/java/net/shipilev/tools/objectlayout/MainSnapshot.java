@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.io.File;
+
+public class MainSnapshot {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java-object-snapshot.jar [snapshot-file] histogram|depths|retained|paths [class-name]|diff [other-snapshot-file] [top]");
+            System.exit(1);
+        }
+
+        GraphSnapshot snapshot = GraphSnapshot.open(new File(args[0]));
+        try {
+            String query = args[1];
+            if (query.equals("histogram")) {
+                snapshot.printHistogram(System.out, top(args, 2));
+            } else if (query.equals("depths")) {
+                snapshot.printDepths(System.out);
+            } else if (query.equals("retained")) {
+                new DominatorTree(snapshot).print(System.out, top(args, 2));
+            } else if (query.equals("paths") && args.length > 2) {
+                snapshot.printPaths(System.out, args[2], top(args, 3));
+            } else if (query.equals("diff") && args.length > 2) {
+                GraphSnapshot after = GraphSnapshot.open(new File(args[2]));
+                try {
+                    new HistogramDiff(snapshot.getHistogram(), after.getHistogram()).print(System.out, top(args, 3));
+                } finally {
+                    after.close();
+                }
+            } else {
+                System.err.println("Unknown query: " + query);
+                System.exit(1);
+            }
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static int top(String[] args, int idx) {
+        return (args.length > idx) ? Integer.parseInt(args[idx]) : 20;
+    }
+
+}
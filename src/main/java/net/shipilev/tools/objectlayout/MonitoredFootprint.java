@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import javax.management.ObjectName;
+import java.lang.ref.WeakReference;
+
+/**
+ * Latest walk results for one monitored root. The root is weakly referenced,
+ * so the monitor does not keep it alive.
+ */
+public class MonitoredFootprint implements MonitoredFootprintMBean {
+
+    private final String name;
+    private final WeakReference<Object> root;
+    private final ObjectName objectName;
+
+    private volatile long totalSize;
+    private volatile long objectCount;
+    private volatile String[] topClasses = new String[0];
+    private volatile long lastUpdated;
+    private volatile long lastWalkTime;
+    private volatile boolean truncated;
+
+    MonitoredFootprint(String name, Object root, ObjectName objectName) {
+        this.name = name;
+        this.root = new WeakReference<Object>(root);
+        this.objectName = objectName;
+    }
+
+    Object getRoot() {
+        return root.get();
+    }
+
+    ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * @param truncated true, if the walk limits had left some objects out
+     */
+    void update(long totalSize, long objectCount, String[] topClasses, long walkTime, boolean truncated) {
+        this.totalSize = totalSize;
+        this.objectCount = objectCount;
+        this.topClasses = topClasses;
+        this.lastWalkTime = walkTime;
+        this.truncated = truncated;
+        this.lastUpdated = System.currentTimeMillis();
+    }
+
+    void truncated(long walkTime) {
+        this.lastWalkTime = walkTime;
+        this.truncated = true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    @Override
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    @Override
+    public String[] getTopClasses() {
+        return topClasses.clone();
+    }
+
+    @Override
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    @Override
+    public long getLastWalkTime() {
+        return lastWalkTime;
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return root.get() != null;
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+/**
+ * Footprint of one monitored root, as published over JMX.
+ *
+ * @see FootprintMonitor
+ */
+public interface MonitoredFootprintMBean {
+
+    String getName();
+
+    /**
+     * @return total size of the objects reachable from the root, as of the last published walk
+     */
+    long getTotalSize();
+
+    /**
+     * @return number of the objects reachable from the root, as of the last published walk
+     */
+    long getObjectCount();
+
+    /**
+     * @return largest classes, as "size count class-name"
+     */
+    String[] getTopClasses();
+
+    /**
+     * @return when the last published walk had finished, in milliseconds since epoch; 0 if never
+     */
+    long getLastUpdated();
+
+    /**
+     * @return duration of the last walk, in milliseconds
+     */
+    long getLastWalkTime();
+
+    /**
+     * @return true, if the last walk had run out of the budget, and was discarded; or if it was
+     * cut by the walk limits, and the published totals are the lower bounds
+     */
+    boolean isTruncated();
+
+    /**
+     * @return false, if the root had been garbage collected
+     */
+    boolean isAlive();
+
+}
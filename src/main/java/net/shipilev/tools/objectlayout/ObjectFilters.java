@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ObjectFilters {
+
+    private ObjectFilters() {
+        // prevent instantiation
+    }
+
+    public static ObjectFilter acceptAll() {
+        return new ObjectFilter() {
+            @Override
+            public boolean accept(Object o) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Excludes the things which usually lead the walk out of the measured structure
+     * into the rest of the heap: classes, class loaders, threads and static singletons.
+     */
+    public static ObjectFilter defaults() {
+        return allOf(
+                excludeInstancesOf(Class.class, ClassLoader.class, Thread.class, ThreadGroup.class),
+                excludeStaticSingletons()
+        );
+    }
+
+    public static ObjectFilter allOf(final ObjectFilter... filters) {
+        return new ObjectFilter() {
+            @Override
+            public boolean accept(Object o) {
+                for (ObjectFilter f : filters) {
+                    if (!f.accept(o)) return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    public static ObjectFilter excludeInstancesOf(final Class<?>... classes) {
+        return new ObjectFilter() {
+            @Override
+            public boolean accept(Object o) {
+                for (Class<?> k : classes) {
+                    if (k.isInstance(o)) return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Excludes the objects referenced from the static fields of their own class,
+     * or of the class enclosing it: enum constants, Boolean.TRUE, shared empty collections,
+     * and the like. These are not owned by any particular structure.
+     * <p>
+     * The filter reads the statics of every class once, and keeps them, along with the
+     * classes themselves, as long as it lives. Use a fresh filter for every walk when
+     * walking repeatedly over a long time.
+     */
+    public static ObjectFilter excludeStaticSingletons() {
+        return new ObjectFilter() {
+            // per class: the statics of the class and of its enclosing class
+            private final Map<Class<?>, Object[]> statics = new IdentityHashMap<Class<?>, Object[]>();
+
+            @Override
+            public boolean accept(Object o) {
+                return !contains(staticsOf(o.getClass()), o);
+            }
+
+            private Object[] staticsOf(Class<?> klass) {
+                Object[] values = statics.get(klass);
+                if (values == null) {
+                    List<Object> list = new ArrayList<Object>();
+                    readStatics(klass, list);
+                    Class<?> enclosing = klass.getEnclosingClass();
+                    if (enclosing != null) {
+                        readStatics(enclosing, list);
+                    }
+                    values = list.toArray();
+                    statics.put(klass, values);
+                }
+                return values;
+            }
+        };
+    }
+
+    private static boolean contains(Object[] values, Object o) {
+        for (Object v : values) {
+            if (v == o) return true;
+        }
+        return false;
+    }
+
+    private static void readStatics(Class<?> klass, List<Object> values) {
+        for (Field f : klass.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive()) {
+                Object base = VMSupport.U.staticFieldBase(f);
+                Object v = VMSupport.U.getObject(base, VMSupport.U.staticFieldOffset(f));
+                if (v != null) {
+                    values.add(v);
+                }
+            }
+        }
+    }
+
+}
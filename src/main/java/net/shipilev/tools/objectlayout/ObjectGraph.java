@@ -21,35 +21,212 @@
  */
 package net.shipilev.tools.objectlayout;
 
+import net.shipilev.tools.objectlayout.output.ReportVisitor;
+import net.shipilev.tools.objectlayout.output.ReportWriter;
+import net.shipilev.tools.objectlayout.output.TextReportWriter;
+
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 
 public class ObjectGraph {
 
+    /**
+     * Measures the objects reachable from the given live roots. The subgraphs shared between
+     * the roots are counted once. Classes, class loaders, threads and static singletons
+     * are excluded, see {@link ObjectFilters#defaults()}.
+     */
+    public static Footprint footprint(Object... roots) {
+        return footprint(ObjectFilters.defaults(), roots);
+    }
+
+    /**
+     * Measures the objects reachable from the given live roots, taking in only the objects
+     * accepted by the filter. The subgraphs shared between the roots are counted once.
+     */
+    public static Footprint footprint(ObjectFilter filter, Object... roots) {
+        ObjectGraphWalker walker = new ObjectGraphWalker(roots, filter, new IdentityVisitedSet());
+        return new Footprint(walker.getClassCounts(), walker.getClassSizes());
+    }
+
+    /**
+     * Measures the objects reachable from the given live roots, within the walk limits.
+     * The subtrees cut off by the limits are listed in the footprint.
+     */
+    public static Footprint footprint(ObjectFilter filter, WalkLimits limits, Object... roots) {
+        ObjectGraphWalker walker = new ObjectGraphWalker(roots, filter, new IdentityVisitedSet());
+        walker.setLimits(limits);
+        return new Footprint(walker.getClassCounts(), walker.getClassSizes(),
+                walker.getLimitReached(), walker.getTruncations());
+    }
+
+    /**
+     * Indexes the shortest reference paths from the live roots, to tell which field chains
+     * hold the objects. The default filters apply, as in {@link #footprint(Object...)}, and the
+     * walk stops at {@link ReferencePathIndex#DEFAULT_MAX_NODES} objects.
+     */
+    public static ReferencePathIndex paths(Object... roots) {
+        return new ReferencePathIndex(ObjectFilters.defaults(), roots);
+    }
+
+    /**
+     * Breaks down the arrays reachable from the live roots by their lengths, and counts
+     * the null slots in them. The default filters apply, as in {@link #footprint(Object...)}.
+     */
+    public static ArrayHistogramVisitor arrays(Object... roots) {
+        ArrayHistogramVisitor visitor = new ArrayHistogramVisitor();
+        new ObjectGraphWalker(roots, ObjectFilters.defaults(), new IdentityVisitedSet()).walk(visitor);
+        return visitor;
+    }
+
+    /**
+     * Looks for the padding losses and the cheaper field layouts in the objects reachable
+     * from the live roots. The default filters apply, as in {@link #footprint(Object...)}.
+     */
+    public static LayoutAdvisor advise(Object... roots) {
+        return LayoutAdvisor.of(ObjectFilters.defaults(), roots);
+    }
+
+    /**
+     * Projects the footprint of the objects reachable from the live roots onto the usual
+     * VM configurations, see {@link FootprintProjection#defaultModels()}. The default filters
+     * apply, as in {@link #footprint(Object...)}.
+     */
+    public static FootprintProjection project(Object... roots) {
+        return project(ObjectFilters.defaults(), new FootprintProjection(), roots);
+    }
+
+    /**
+     * Walks the objects reachable from the roots into the given projection, taking in only
+     * the objects accepted by the filter.
+     */
+    public static FootprintProjection project(ObjectFilter filter, FootprintProjection projection, Object... roots) {
+        new ObjectGraphWalker(roots, filter, new IdentityVisitedSet()).walk(projection);
+        return projection;
+    }
+
+    /**
+     * Saves the objects reachable from the live roots into the file, to be queried offline
+     * with {@link GraphSnapshot}. The default filters apply, as in {@link #footprint(Object...)}.
+     */
+    public static void snapshot(File file, Object... roots) throws IOException {
+        GraphSnapshot.write(file, ObjectFilters.defaults(), roots);
+    }
+
+    /**
+     * Streams every object reachable from the roots into the writer, as the walk discovers them.
+     * Nothing but the visited set is accumulated, so this scales to the very large graphs.
+     */
+    public static void dump(ReportWriter w, ObjectFilter filter, Object... roots) throws IOException {
+        ReportVisitor visitor = new ReportVisitor(w);
+        new ObjectGraphWalker(roots, filter, new IdentityVisitedSet()).walk(visitor);
+        if (visitor.getFailure() != null) {
+            throw visitor.getFailure();
+        }
+        w.flush();
+    }
+
     public static void analyze(PrintStream pw, Class<?> klass) {
+        TextReportWriter w = new TextReportWriter(pw);
         try {
-            Object o = klass.newInstance();
-            ObjectGraphWalker walker = new ObjectGraphWalker(o);
-
-            int totalCount = 0;
-            int totalSize = 0;
-
-            pw.println(o.getClass().getName() + " instance:");
-            pw.printf(" %5s %5s %5s %s\n", "count", "size", "avg", "description");
-            for (Class<?> key : walker.getClassCounts().keys()) {
-                int count = walker.getClassCounts().count(key);
-                int size = walker.getClassSizes().count(key);
-                pw.printf(" %5d %5d %5d %s\n", count, size, size/count, key.getName());
-                totalCount += count;
-                totalSize += size;
-            }
-            pw.printf(" %5d %5d %5s %s\n", totalCount, totalSize, "", "(total)");
+            analyze(w, klass);
+        } catch (IOException e) {
+            // text writer does not throw
+            throw new IllegalStateException(e);
+        }
+        w.flush();
+    }
 
+    public static void analyze(ReportWriter w, Class<?> klass) throws IOException {
+        try {
+            analyzeInstance(w, klass);
+        } catch (InstantiationException e) {
+            w.error(klass.getName(), describe(e));
+        } catch (IllegalAccessException e) {
+            w.error(klass.getName(), describe(e));
+        }
+    }
+
+    static void analyzeInstance(ReportWriter w, Class<?> klass) throws InstantiationException, IllegalAccessException, IOException {
+        Object o = newInstance(klass);
+        ObjectGraphWalker walker = new ObjectGraphWalker(o);
+        new Footprint(walker.getClassCounts(), walker.getClassSizes()).write(w, o.getClass().getName());
+    }
+
+    public static void analyzeRetained(PrintStream pw, Class<?> klass, int top) {
+        Object o = instantiate(pw, klass);
+        if (o != null) {
+            pw.println(o.getClass().getName() + " instance, retained sizes:");
+            new DominatorTree(new IndexedObjectGraph(o)).print(pw, top);
+        }
+    }
 
+    public static void analyzeLayouts(PrintStream pw, Class<?> klass, int top) {
+        Object o = instantiate(pw, klass);
+        if (o != null) {
+            pw.println(o.getClass().getName() + " instance, layout advice:");
+            advise(o).print(pw, top);
+        }
+    }
+
+    public static void analyzeProjections(PrintStream pw, Class<?> klass, int top) {
+        Object o = instantiate(pw, klass);
+        if (o != null) {
+            pw.println(o.getClass().getName() + " instance, projected onto the other VM configurations:");
+            project(o).print(pw, top);
+        }
+    }
+
+    public static void analyzeArrays(PrintStream pw, Class<?> klass) {
+        Object o = instantiate(pw, klass);
+        if (o != null) {
+            pw.println(o.getClass().getName() + " instance, arrays:");
+            arrays(o).print(pw);
+        }
+    }
+
+    public static void analyzePaths(PrintStream pw, Class<?> klass, String heldClass, int top) {
+        Object o = instantiate(pw, klass);
+        if (o != null) {
+            pw.println(o.getClass().getName() + " instance, field paths by size:");
+            ReferencePathIndex paths = paths(o);
+            paths.printPaths(pw, heldClass, top);
+            if (paths.getLimitReached() != null) {
+                pw.println("Walk stopped at " + paths.getLimitReached() + ", the objects past it are not indexed");
+            }
+        }
+    }
+
+    /**
+     * @return new instance made with the default constructor, or null if there is none,
+     * after telling so
+     */
+    private static Object instantiate(PrintStream pw, Class<?> klass) {
+        try {
+            return newInstance(klass);
         } catch (InstantiationException e) {
-            pw.println("Instantiation exception, does the class have the default constructor?");
+            pw.println(describe(e));
         } catch (IllegalAccessException e) {
-            pw.println("Illegal access exception, does the class have the public default constructor?");
+            pw.println(describe(e));
+        }
+        return null;
+    }
+
+    static Object newInstance(Class<?> klass) throws InstantiationException, IllegalAccessException {
+        return klass.newInstance();
+    }
+
+    /**
+     * @return the explanation for the failure of {@link #newInstance(Class)}
+     */
+    static String describe(Exception e) {
+        if (e instanceof InstantiationException) {
+            return "Instantiation exception, does the class have the default constructor?";
+        }
+        if (e instanceof IllegalAccessException) {
+            return "Illegal access exception, does the class have the public default constructor?";
         }
+        return e.toString();
     }
 
 }
@@ -0,0 +1,41 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+/**
+ * Object graph as the numbered nodes and the edges between them, on top of the
+ * breadth-first tree.
+ *
+ * @see IndexedObjectGraph
+ * @see GraphSnapshot
+ */
+public abstract class ObjectGraphIndex extends ObjectPathIndex {
+
+    public abstract int getEdgeStart(int id);
+
+    public abstract int getEdgeEnd(int id);
+
+    public abstract int getEdge(int idx);
+
+    public abstract int getEdgeCount();
+
+}
@@ -21,92 +21,369 @@
  */
 package net.shipilev.tools.objectlayout;
 
+import net.shipilev.tools.objectlayout.ObjectVisitor.Action;
 import net.shipilev.tools.objectlayout.util.Multiset;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Walks the object graph depth-first and reports every reachable object to the
+ * {@link ObjectVisitor}. The walk keeps one frame per level of the current path, each
+ * frame remembering which reference to follow next, so the memory needed besides the
+ * visited set is proportional to the walk depth, not to the width of the graph.
+ * <p>
+ * The objects rejected by the {@link ObjectFilter} are neither reported nor traversed,
+ * the roots are always taken in.
+ * The walk can be bounded with {@link WalkLimits}, and can skip over the array elements
+ * with {@link SamplingObjectVisitor}.
+ */
 public class ObjectGraphWalker {
 
-    private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private static final String ARRAY_ELEMENT = "[]";
+
+    private final Object[] roots;
+    private final ObjectFilter filter;
+    private VisitedSet histogramVisited;
+    private ClassHistogramVisitor histogram;
+
+    // walk frames: object, its layout (null for arrays), next reference to follow,
+    // step to the next array element
+    private Object[] frameObjects = new Object[16];
+    private ClassLayout[] frameLayouts = new ClassLayout[16];
+    private int[] frameCursors = new int[16];
+    private int[] frameSteps = new int[16];
+
+    // only with the limits: the field the frame object was reached through, the pruned fields
+    // of the frame object, and the bytes walked before the frame object
+    private String[] frameFields = new String[16];
+    private boolean[][] framePruned = new boolean[16][];
+    private long[] frameStarts = new long[16];
+
+    // the visited set is checked for reliability once per this many objects
+    private static final int RELIABILITY_CHECK_MASK = 0xFFF;
 
-    private final Multiset<Class<?>> classSizes = new Multiset<Class<?>>();
-    private final Multiset<Class<?>> classCounts = new Multiset<Class<?>>();
-    private final Object root;
-    private boolean walked;
+    // the time limit is checked once per this many scanned references
+    private static final int DEADLINE_CHECK_MASK = 0xFFF;
+
+    private WalkLimits limits;
+    private SamplingObjectVisitor sampler;
+    private boolean reliable;
+    private long addedNodes;
+    private long scannedSlots;
+    private long deadline;
+    private long walkedNodes;
+    private long walkedBytes;
+    private String limitReached;
+    private final List<WalkLimits.Truncation> truncations = new ArrayList<WalkLimits.Truncation>();
 
     public ObjectGraphWalker(Object root) {
-        this.root = root;
-    }
-
-    private void walk() {
-        if (walked) return;
-        walked = true;
-
-        List<Object> curLayer = new ArrayList<Object>();
-        List<Object> newLayer = new ArrayList<Object>();
-
-        visitObject(root);
-        visited.add(root);
-        curLayer.add(root);
-
-        while (!curLayer.isEmpty()) {
-            newLayer.clear();
-            for (Object next : curLayer) {
-                for (Object ref : peelReferences(next)) {
-                    if (ref != null) {
-                        if (visited.add(ref)) {
-                            visitObject(ref);
-                            newLayer.add(ref);
-                        }
-                    }
+        this(root, new IdentityVisitedSet());
+    }
+
+    /**
+     * @param visited visited set to use for the class histogram walk, see {@link #ObjectGraphWalker(Object[], ObjectFilter, VisitedSet)}
+     */
+    public ObjectGraphWalker(Object root, VisitedSet visited) {
+        this(new Object[]{root}, ObjectFilters.acceptAll(), visited);
+    }
+
+    /**
+     * @param roots roots to walk from; the objects reachable from several roots are reported once
+     * @param filter filter for the other objects to take in
+     * @param visited visited set to use for the first class histogram walk; the set is released
+     *                after it, so the walks redone after {@link #setLimits(WalkLimits)} use {@link IdentityVisitedSet}
+     */
+    public ObjectGraphWalker(Object[] roots, ObjectFilter filter, VisitedSet visited) {
+        this.roots = roots.clone();
+        this.filter = filter;
+        this.histogramVisited = visited;
+    }
+
+    /**
+     * @param limits limits for the following walks, or null for none
+     */
+    public void setLimits(WalkLimits limits) {
+        this.limits = limits;
+        this.histogram = null;
+    }
+
+    /**
+     * @return the limit which had stopped the last walk, e.g. "max nodes (1000)";
+     * or null, if the walk was not stopped by the limits
+     */
+    public String getLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * @return subtrees the last walk had cut off because of the subtree budget
+     */
+    public List<WalkLimits.Truncation> getTruncations() {
+        return truncations;
+    }
+
+    private void walkHistogram() {
+        if (histogram != null) return;
+
+        // the set is released by the walk, and is not usable for the next one
+        VisitedSet visited = (histogramVisited != null) ? histogramVisited : new IdentityVisitedSet();
+        histogramVisited = null;
+
+        histogram = new ClassHistogramVisitor();
+        walk(histogram, visited);
+
+        if (!reliable) {
+            // the set had lost track of the objects, and the walk gave up as soon as it
+            // noticed; redo with the set that always works
+            histogram = new ClassHistogramVisitor();
+            walk(histogram, new IdentityVisitedSet());
+        }
+    }
+
+    public void walk(ObjectVisitor visitor) {
+        walk(visitor, new IdentityVisitedSet());
+    }
+
+    /**
+     * Walks the graph with the given visited set, and releases the set after the walk.
+     * The walk stops early if the set becomes unreliable, see {@link #isLastWalkReliable()}.
+     */
+    public void walk(ObjectVisitor visitor, VisitedSet visited) {
+        try {
+            doWalk(visitor, visited);
+            reliable = reliable && visited.isReliable();
+        } finally {
+            visited.release();
+            sampler = null;
+            Arrays.fill(frameObjects, null);
+        }
+    }
+
+    /**
+     * @return false, if the visited set of the last walk had lost track of the objects,
+     * and the walk was stopped; the visitor had seen the partial graph then
+     */
+    public boolean isLastWalkReliable() {
+        return reliable;
+    }
+
+    private void doWalk(ObjectVisitor visitor, VisitedSet visited) {
+        sampler = (visitor instanceof SamplingObjectVisitor) ? (SamplingObjectVisitor) visitor : null;
+        reliable = true;
+        addedNodes = 0;
+        scannedSlots = 0;
+        deadline = (limits == null || limits.getMaxTime() == Long.MAX_VALUE) ?
+                Long.MAX_VALUE : System.nanoTime() + limits.getMaxTime();
+        walkedNodes = 0;
+        walkedBytes = 0;
+        limitReached = null;
+        truncations.clear();
+
+        for (Object root : roots) {
+            if (root == null || !visited.add(root)) {
+                continue;
+            }
+
+            long size = sizeOf(root);
+            Action action = visitor.onObject(root, root.getClass(), size, 0, null);
+            if (action == Action.STOP || (limits != null && overLimits(size))) {
+                return;
+            }
+            if (action == Action.CONTINUE && hasReferences(root) && (limits == null || limits.getMaxDepth() > 0)) {
+                if (!walkFrom(root, visitor, visited)) {
+                    return;
                 }
             }
-            curLayer.clear();
-            curLayer.addAll(newLayer);
         }
     }
 
-    private List<Object> peelReferences(Object o) {
-        List<Object> result = new ArrayList<Object>();
+    /**
+     * @return false, if visitor had requested to stop
+     */
+    private boolean walkFrom(Object root, ObjectVisitor visitor, VisitedSet visited) {
+        int top = 0;
+        push(top, root, null, 0);
+
+        while (top >= 0) {
+            Object o = frameObjects[top];
+            ClassLayout layout = frameLayouts[top];
+            int cursor = frameCursors[top];
 
-        if (o.getClass().isArray() && !o.getClass().getComponentType().isPrimitive()) {
-            result.addAll(Arrays.asList((Object[])o));
+            Object ref;
+            String field;
+            boolean pruned;
+            if (layout == null) {
+                Object[] array = (Object[]) o;
+                if (cursor >= array.length) {
+                    frameObjects[top--] = null;
+                    continue;
+                }
+                ref = array[cursor];
+                field = ARRAY_ELEMENT;
+                pruned = framePruned[top] != null && framePruned[top][0];
+            } else {
+                long[] offsets = layout.getReferenceOffsets();
+                if (cursor >= offsets.length) {
+                    frameObjects[top--] = null;
+                    continue;
+                }
+                ref = VMSupport.U.getObject(o, offsets[cursor]);
+                field = layout.getReferenceNames()[cursor];
+                pruned = framePruned[top] != null && framePruned[top][cursor];
+            }
+            frameCursors[top] = cursor + frameSteps[top];
+
+            if (deadline != Long.MAX_VALUE && (++scannedSlots & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline) {
+                limitReached = "max time (" + limits.getMaxTime() + " ns)";
+                return false;
+            }
+
+            if (ref == null || pruned || (limits != null && limits.isPrunedClass(ref.getClass()))) {
+                continue;
+            }
+            if (!visited.add(ref)) {
+                continue;
+            }
+            if ((++addedNodes & RELIABILITY_CHECK_MASK) == 0 && !visited.isReliable()) {
+                reliable = false;
+                return false;
+            }
+            if (!filter.accept(ref)) {
+                continue;
+            }
+
+            long size = sizeOf(ref);
+            Action action = visitor.onObject(ref, ref.getClass(), size, top + 1, field);
+            if (action == Action.STOP) {
+                return false;
+            }
+            if (limits == null) {
+                if (action == Action.CONTINUE && hasReferences(ref)) {
+                    push(++top, ref, field, 0);
+                }
+                continue;
+            }
+
+            if (overLimits(size)) {
+                return false;
+            }
+            if (action == Action.CONTINUE && hasReferences(ref) && top + 1 < limits.getMaxDepth()) {
+                push(++top, ref, field, walkedBytes - size);
+            }
+
+            int depth = limits.getSubtreeDepth();
+            if (top >= depth && walkedBytes - frameStarts[depth] > limits.getSubtreeBudget()) {
+                truncations.add(new WalkLimits.Truncation(framePath(depth), frameObjects[depth].getClass().getName(),
+                        walkedBytes - frameStarts[depth]));
+                while (top >= depth) {
+                    frameObjects[top--] = null;
+                }
+            }
         }
+        return true;
+    }
 
-        for (Field f : o.getClass().getDeclaredFields()) {
-            f.setAccessible(true);
-            if (f.getType().isPrimitive()) continue;
-            if (Modifier.isStatic(f.getModifiers())) continue;
+    /**
+     * @return true, if the walk had reached the node or byte limits
+     */
+    private boolean overLimits(long size) {
+        walkedNodes++;
+        walkedBytes += size;
+        if (walkedNodes >= limits.getMaxNodes()) {
+            limitReached = "max nodes (" + limits.getMaxNodes() + ")";
+        } else if (walkedBytes >= limits.getMaxBytes()) {
+            limitReached = "max bytes (" + limits.getMaxBytes() + ")";
+        }
+        return limitReached != null;
+    }
 
-            try {
-                result.add(f.get(o));
-            } catch (IllegalAccessException e) {
-                throw new IllegalStateException(e);
+    private String framePath(int top) {
+        StringBuilder sb = new StringBuilder("root");
+        for (int f = 1; f <= top; f++) {
+            if (!ARRAY_ELEMENT.equals(frameFields[f])) {
+                sb.append('.');
             }
+            sb.append(frameFields[f]);
         }
+        return sb.toString();
+    }
 
-        return result;
+    private static boolean hasReferences(Object o) {
+        Class<?> klass = o.getClass();
+        if (klass.isArray()) {
+            return !klass.getComponentType().isPrimitive();
+        }
+        return ClassLayout.of(klass).getReferenceOffsets().length > 0;
     }
 
-    private void visitObject(Object o) {
+    private void push(int top, Object o, String field, long start) {
+        if (top == frameObjects.length) {
+            frameObjects = Arrays.copyOf(frameObjects, top * 2);
+            frameLayouts = Arrays.copyOf(frameLayouts, top * 2);
+            frameCursors = Arrays.copyOf(frameCursors, top * 2);
+            frameSteps = Arrays.copyOf(frameSteps, top * 2);
+            frameFields = Arrays.copyOf(frameFields, top * 2);
+            framePruned = Arrays.copyOf(framePruned, top * 2);
+            frameStarts = Arrays.copyOf(frameStarts, top * 2);
+        }
         Class<?> klass = o.getClass();
-        classCounts.add(klass);
+        frameObjects[top] = o;
+        frameLayouts[top] = klass.isArray() ? null : ClassLayout.of(klass);
+        frameCursors[top] = 0;
+        frameSteps[top] = 1;
+        if (sampler != null && klass.isArray()) {
+            Object[] array = (Object[]) o;
+            int step = sampler.getArrayStep(array);
+            if (step > 1) {
+                frameSteps[top] = step;
+                frameCursors[top] = sampler.getArrayStart(array, step);
+            }
+        }
+        if (limits != null) {
+            frameFields[top] = field;
+            framePruned[top] = limits.getPrunedFields(klass);
+            frameStarts[top] = start;
+        } else {
+            framePruned[top] = null;
+        }
+    }
+
+    private static long sizeOf(Object o) {
         try {
-            classSizes.add(klass, ObjectLayout.sizeOf(o));
+            return ObjectLayout.sizeOf(o);
         } catch (Exception e) {
-            classSizes.add(klass, 0);
+            return 0;
         }
     }
 
+    /**
+     * Saves the graph reachable from the roots into the file, for the offline queries.
+     * Unlike the walks, the snapshot is written breadth-first, see {@link GraphSnapshot}.
+     */
+    public void writeSnapshot(File file) throws IOException {
+        GraphSnapshot.write(file, filter, roots);
+    }
+
+    /**
+     * Indexes the graph reachable from the roots, to find the shortest reference paths
+     * to the objects. Unlike the walks, the index is built breadth-first, see {@link ReferencePathIndex};
+     * the limits apply, except for the subtree budget.
+     */
+    public ReferencePathIndex buildPathIndex() {
+        return new ReferencePathIndex(filter, limits, roots);
+    }
+
     public Multiset<Class<?>> getClassSizes() {
-        walk();
-        return classSizes;
+        walkHistogram();
+        return histogram.getClassSizes();
     }
 
     public Multiset<Class<?>> getClassCounts() {
-        walk();
-        return classCounts;
+        walkHistogram();
+        return histogram.getClassCounts();
     }
 }
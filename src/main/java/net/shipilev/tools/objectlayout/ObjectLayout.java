@@ -21,11 +21,17 @@
  */
 package net.shipilev.tools.objectlayout;
 
+import net.shipilev.tools.objectlayout.output.ReportWriter;
+import net.shipilev.tools.objectlayout.output.TextReportWriter;
+
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ObjectLayout {
 
@@ -33,108 +39,137 @@ public class ObjectLayout {
         analyze(System.out, klass);
     }
 
-    public static int sizeOf(Object o) throws Exception {
-        if (VMSupport.INSTRUMENTATION != null) {
-            return VMSupport.align((int) VMSupport.INSTRUMENTATION.getObjectSize(o));
+    public static long sizeOf(Object o) throws Exception {
+        // the computed sizes are verified against the VM once, and only then the VM is asked for every object
+        if (!VMSupport.trustsLayout()) {
+            return VMSupport.align(VMSupport.INSTRUMENTATION.getObjectSize(o));
         }
 
-        if (o.getClass().isArray()) {
-            return VMSupport.align(sizeOfArray(o));
+        Class<?> klass = o.getClass();
+        if (klass.isArray()) {
+            return ArrayLayout.of(klass).sizeOf(o);
         }
 
-        SortedSet<FieldInfo> set = new TreeSet<FieldInfo>();
+        return ClassLayout.of(klass).getInstanceSize();
+    }
 
-        Class<?> klass = o.getClass();
-        for (Field f : klass.getDeclaredFields()) {
-            if (!Modifier.isStatic(f.getModifiers())) {
-                set.add(new FieldInfo(klass, f));
+    /**
+     * Compares the sizes {@link #sizeOf(Object)} computes without the VM, from the field offsets
+     * and the array layouts, with the ones the VM reports for the sample objects and arrays.
+     *
+     * @return mismatches, empty if the sizes agree with the VM
+     */
+    static List<String> verifySizes(Instrumentation inst) {
+        List<String> mismatches = new ArrayList<String>();
+        for (Class<?> k : VMLayout.PROBE_CLASSES) {
+            try {
+                long actual = inst.getObjectSize(VMSupport.U.allocateInstance(k));
+                long computed = ClassLayout.of(k).getInstanceSize();
+                if (actual != computed) {
+                    mismatches.add(k.getName() + ": " + computed + " bytes computed, " + actual + " bytes in the VM");
+                }
+            } catch (InstantiationException e) {
+                mismatches.add(k.getName() + ": cannot instantiate");
             }
         }
-
-        Class<?> superKlass = klass;
-        while ((superKlass = superKlass.getSuperclass()) != null) {
-            for (Field f : superKlass.getDeclaredFields()) {
-                if (!Modifier.isStatic(f.getModifiers())) {
-                    set.add(new FieldInfo(superKlass, f));
+        for (Class<?> c : VMLayout.PROBE_COMPONENTS) {
+            for (int length : VMLayout.PROBE_LENGTHS) {
+                Object array = Array.newInstance(c, length);
+                long actual = inst.getObjectSize(array);
+                long computed = ArrayLayout.of(array.getClass()).sizeOf(array);
+                if (actual != computed) {
+                    mismatches.add(c.getName() + "[" + length + "]: " + computed + " bytes computed, " + actual + " bytes in the VM");
                 }
             }
         }
-
-        if (!set.isEmpty()) {
-            return VMSupport.align(set.last().offset + set.last().getSize());
-        } else {
-            return VMSupport.align(VMSupport.HEADER_SIZE);
-        }
-    }
-
-    private static int sizeOfArray(Object o) {
-        int base = VMSupport.U.arrayBaseOffset(o.getClass());
-        int scale = VMSupport.U.arrayIndexScale(o.getClass());
-        Class<?> type = o.getClass().getComponentType();
-        if (type == boolean.class)  return base + ((boolean[])o).length * scale;
-        if (type == byte.class)     return base + ((byte[])o).length    * scale;
-        if (type == short.class)    return base + ((short[])o).length   * scale;
-        if (type == char.class)     return base + ((char[])o).length    * scale;
-        if (type == int.class)      return base + ((int[])o).length     * scale;
-        if (type == float.class)    return base + ((float[])o).length   * scale;
-        if (type == long.class)     return base + ((long[])o).length    * scale;
-        if (type == double.class)   return base + ((double[])o).length  * scale;
-        return VMSupport.align(base + ((Object[])o).length  * scale);
+        return mismatches;
     }
 
     public static int analyze(PrintStream pw, Class klass) throws Exception {
-        SortedSet<FieldInfo> set = new TreeSet<FieldInfo>();
+        TextReportWriter w = new TextReportWriter(pw);
+        int aligned = analyze(w, klass);
+        w.flush();
 
-        for (Field f : klass.getDeclaredFields()) {
-            if (!Modifier.isStatic(f.getModifiers())) {
-                set.add(new FieldInfo(klass, f));
+        if (VMSupport.INSTRUMENTATION != null) {
+            try {
+                Object i = klass.isArray() ? Array.newInstance(klass.getComponentType(), 0) : klass.newInstance();
+                pw.println("VM reports " + VMSupport.INSTRUMENTATION.getObjectSize(i) + " bytes per instance");
+            } catch (InstantiationException e) {
+                pw.println("VM fails to invoke default constructor (does object have one?)");
             }
+        } else {
+            pw.println("VM agent is not enabled, use -javaagent: to add this JAR as Java agent");
         }
 
-        Class<?> superKlass = klass;
-        while ((superKlass = superKlass.getSuperclass()) != null) {
-            for (Field f : superKlass.getDeclaredFields()) {
-                if (!Modifier.isStatic(f.getModifiers())) {
-                    set.add(new FieldInfo(superKlass, f));
-                }
-            }
-        }
+        return aligned;
+    }
 
-        int maxLength = 1;
-        for (FieldInfo f : set) {
-            maxLength = Math.max(f.getType().length(), maxLength);
+    public static int analyze(ReportWriter w, Class klass) throws IOException {
+        String name = klass.getName();
+        if (klass.isArray()) {
+            return analyzeArray(w, klass);
         }
+        FieldInfo[] fields = ClassLayout.of(klass).getFields();
 
-        int nextFree = 0;
-        pw.println(klass.getCanonicalName());
-        pw.printf(" %6s %5s %" + maxLength + "s %s\n", "offset", "size", "type", "description");
-        pw.printf(" %6d %5d %" + maxLength + "s %s\n", 0, VMSupport.HEADER_SIZE, "", "(assumed to be the object header + first field alignment)");
-        nextFree += VMSupport.HEADER_SIZE;
+        int nextFree = header(w, name);
 
-        for (FieldInfo f : set) {
+        for (FieldInfo f : fields) {
             if (f.offset > nextFree) {
-                pw.printf(" %6d %5d %" + maxLength + "s %s\n", nextFree, (f.offset - nextFree), "", "(alignment/padding gap)");
+                w.layoutRow(name, nextFree, (f.offset - nextFree), "", "(alignment/padding gap)");
             }
-            pw.printf(" %6d %5d %" + maxLength + "s %s\n", f.offset, f.getSize(), f.getType(), f.getHostClass() + "." + f.name);
+            w.layoutRow(name, f.offset, f.getSize(), f.getType(), f.getHostClass() + "." + f.name);
 
             nextFree = f.offset + f.getSize();
         }
         int aligned = VMSupport.align(nextFree);
         if (aligned != nextFree) {
-            pw.printf(" %6d %5s %" + maxLength + "s %s\n", nextFree, aligned - nextFree, "", "(loss due to the next object alignment)");
+            w.layoutRow(name, nextFree, aligned - nextFree, "", "(loss due to the next object alignment)");
         }
-        pw.printf(" %6d %5s %" + maxLength + "s %s\n", aligned, "", "", "(object boundary, size estimate)");
+        w.layoutEnd(name, aligned);
 
-        if (VMSupport.INSTRUMENTATION != null) {
-            try {
-                Object i = klass.newInstance();
-                pw.println("VM reports " + VMSupport.INSTRUMENTATION.getObjectSize(i) + " bytes per instance");
-            } catch (InstantiationException e) {
-                pw.println("VM fails to invoke default constructor (does object have one?)");
-            }
+        return aligned;
+    }
+
+    private static int header(ReportWriter w, String name) throws IOException {
+        VMLayout layout = VMSupport.LAYOUT;
+        int mark = layout.getMarkWordSize();
+        int klass = layout.getKlassPointerSize();
+        if (klass == 0) {
+            w.layoutRow(name, 0, mark, "", "(mark word, with the klass pointer)");
         } else {
-            pw.println("VM agent is not enabled, use -javaagent: to add this JAR as Java agent");
+            w.layoutRow(name, 0, mark, "", "(mark word)");
+            w.layoutRow(name, mark, klass, "", layout.isCompressedKlass() ? "(compressed klass pointer)" : "(klass pointer)");
         }
+        return mark + klass;
+    }
+
+    /**
+     * Prints the layout of the empty array; the elements follow at the index scale.
+     */
+    private static int analyzeArray(ReportWriter w, Class<?> klass) throws IOException {
+        String name = klass.getName();
+        ArrayLayout array = ArrayLayout.of(klass);
+
+        int nextFree = header(w, name);
+        int lengthOffset = VMSupport.LAYOUT.getArrayLengthOffset();
+        if (lengthOffset > nextFree) {
+            w.layoutRow(name, nextFree, lengthOffset - nextFree, "", "(alignment/padding gap)");
+        }
+        w.layoutRow(name, lengthOffset, VMLayout.ARRAY_LENGTH_SIZE, "int", "(array length)");
+        nextFree = lengthOffset + VMLayout.ARRAY_LENGTH_SIZE;
+
+        int base = array.getBaseOffset();
+        if (base > nextFree) {
+            w.layoutRow(name, nextFree, base - nextFree, "", "(alignment/padding gap)");
+        }
+        w.layoutRow(name, base, 0, klass.getComponentType().getSimpleName(),
+                "(array elements, " + array.getIndexScale() + " bytes each)");
+
+        int aligned = (int) array.sizeOf(0);
+        if (aligned != base) {
+            w.layoutRow(name, base, aligned - base, "", "(loss due to the next object alignment, when empty)");
+        }
+        w.layoutEnd(name, aligned);
 
         return aligned;
     }
@@ -143,14 +178,19 @@ public class ObjectLayout {
 
         private final String name;
         private final boolean aStatic;
+        private final boolean primitive;
         private final int offset;
-        private final Class<?> type;
-        private final Class klass;
+        private final int size;
+        private final String type;
+        private final String hostClass;
 
         public FieldInfo(Class hostKlass, Field field) {
-            klass = hostKlass;
+            // do not hold on the classes themselves, this gets cached per class
+            hostClass = hostKlass.getSimpleName();
             name = field.getName();
-            type = field.getType();
+            type = field.getType().getSimpleName();
+            primitive = field.getType().isPrimitive();
+            size = VMSupport.sizeOfType(field.getType());
             aStatic = Modifier.isStatic(field.getModifiers());
             if (aStatic) {
                 offset = (int) VMSupport.U.staticFieldOffset(field);
@@ -164,16 +204,28 @@ public class ObjectLayout {
             return (offset < o.offset) ? -1 : ((offset == o.offset) ? 0 : 1);
         }
 
+        public int getOffset() {
+            return offset;
+        }
+
         public int getSize() {
-            return VMSupport.sizeOfType(type);
+            return size;
+        }
+
+        public boolean isPrimitive() {
+            return primitive;
+        }
+
+        public String getName() {
+            return name;
         }
 
         public String getType() {
-            return type.getSimpleName();
+            return type;
         }
 
         public String getHostClass() {
-            return klass.getSimpleName();
+            return hostClass;
         }
     }
 
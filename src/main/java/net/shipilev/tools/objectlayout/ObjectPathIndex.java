@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.IntList;
+import net.shipilev.tools.objectlayout.util.LongIntMap;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Breadth-first tree over the reachable objects: every node knows its parent, and the field
+ * it was discovered through, so that the tree path is the shortest reference path from the root.
+ * The nodes are numbered in the breadth-first order, the root being node 0, so that the parent
+ * always has the lower id than its children.
+ *
+ * @see ReferencePathIndex
+ * @see ObjectGraphIndex
+ */
+public abstract class ObjectPathIndex {
+
+    static final String ARRAY_ELEMENT = "[]";
+
+    // interned field paths, computed on the first query
+    private int[] nodePaths;
+    private IntList pathNodes;
+
+    public abstract int size();
+
+    public abstract String getClassName(int id);
+
+    public abstract long getShallowSize(int id);
+
+    /**
+     * @return parent in the breadth-first tree, or -1 for the root
+     */
+    public abstract int getParent(int id);
+
+    /**
+     * @return id of the field this node was discovered through, or -1 for the root
+     */
+    public abstract int getParentField(int id);
+
+    public abstract String getFieldName(int fieldId);
+
+    public abstract int getFieldCount();
+
+    /**
+     * @return shortest field path from the root, e.g. "root.table[].value"
+     */
+    public String getPath(int id) {
+        IntList fields = new IntList();
+        for (int n = id; getParent(n) >= 0; n = getParent(n)) {
+            fields.add(getParentField(n));
+        }
+
+        StringBuilder sb = new StringBuilder("root");
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            String name = getFieldName(fields.get(i));
+            if (!ARRAY_ELEMENT.equals(name)) {
+                sb.append('.');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Interns the field paths: every path is the breadth-first tree path interned as
+     * (parent path, field), and the nodes reached through the same fields share the path.
+     *
+     * @param pathNodes receives some node for every path, to get the path string from
+     * @return path for every node
+     */
+    public int[] internPaths(IntList pathNodes) {
+        int n = size();
+        int[] nodePaths = new int[n];
+        LongIntMap pathIds = new LongIntMap();
+
+        pathNodes.add(0);
+        for (int id = 1; id < n; id++) {
+            int parentPath = nodePaths[getParent(id)];
+            long key = ((long) parentPath << 32) | getParentField(id);
+            int path = pathIds.get(key);
+            if (path < 0) {
+                path = pathNodes.size();
+                pathIds.put(key, path);
+                pathNodes.add(id);
+            }
+            nodePaths[id] = path;
+        }
+        return nodePaths;
+    }
+
+    /**
+     * Aggregates the objects by their field paths, e.g. to find which field chain holds
+     * the most of byte[]. The paths are interned once, on the first call, at 4 bytes per node
+     * plus the path table; the later calls are the single pass over the nodes.
+     *
+     * @param className class to count, or null to count everything
+     * @param top number of paths to return
+     * @return paths holding the most bytes of that class, largest first
+     */
+    public synchronized List<PathStats> getTopPaths(String className, int top) {
+        if (nodePaths == null) {
+            pathNodes = new IntList();
+            nodePaths = internPaths(pathNodes);
+        }
+
+        long[] counts = new long[pathNodes.size()];
+        long[] totals = new long[pathNodes.size()];
+        for (int id = 0; id < nodePaths.length; id++) {
+            if (className == null || className.equals(getClassName(id))) {
+                counts[nodePaths[id]]++;
+                totals[nodePaths[id]] += getShallowSize(id);
+            }
+        }
+
+        List<PathStats> result = new ArrayList<PathStats>();
+        for (int p : DominatorTree.topIndices(totals, top)) {
+            if (counts[p] > 0) {
+                result.add(new PathStats(getPath(pathNodes.get(p)), counts[p], totals[p]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prints the field paths holding the most bytes of the given class.
+     *
+     * @param className class to count, or null to count everything
+     */
+    public void printPaths(PrintStream pw, String className, int top) {
+        List<PathStats> paths = getTopPaths(className, top);
+        if (paths.isEmpty()) {
+            pw.println((className == null) ? "No objects" : "No instances of " + className);
+            return;
+        }
+
+        pw.printf(" %10s %12s %s\n", "count", "size", "field path");
+        for (PathStats p : paths) {
+            pw.printf(" %10d %12d %s\n", p.getCount(), p.getSize(), p.getPath());
+        }
+    }
+
+    public static class PathStats {
+        private final String path;
+        private final long count;
+        private final long size;
+
+        PathStats(String path, long count, long size) {
+            this.path = path;
+            this.count = count;
+            this.size = size;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+}
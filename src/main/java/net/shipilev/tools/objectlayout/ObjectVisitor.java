@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+/**
+ * Receives the objects as the walker discovers them. Every reachable object is
+ * reported once, on its first discovery.
+ */
+public interface ObjectVisitor {
+
+    enum Action {
+        /**
+         * Walk the references of this object.
+         */
+        CONTINUE,
+
+        /**
+         * Do not walk the references of this object. The objects reachable
+         * through other paths are still discovered.
+         */
+        SKIP_REFERENCES,
+
+        /**
+         * Stop the walk altogether.
+         */
+        STOP
+    }
+
+    /**
+     * @param obj discovered object
+     * @param klass object class
+     * @param size object size
+     * @param depth number of references from the root in the walk tree; the walk is depth-first,
+     *              so this is not necessarily the shortest distance from the root
+     * @param parentField name of the field the object was discovered through;
+     *                    "[]" for array elements, null for the roots
+     * @return what to do next
+     */
+    Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField);
+
+}
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.ConcurrentIdentitySet;
+import net.shipilev.tools.objectlayout.util.Multiset;
+import net.shipilev.tools.objectlayout.util.ObjectBuffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Walks the object graph with several threads. Each worker runs the DFS over its own
+ * stack, and gives away the batches of pending objects whenever the shared queue runs
+ * dry, so that idle workers can pick them up. The large reference arrays are split into
+ * the slices of {@link #ARRAY_CHUNK} elements, which go to the shared queue right away,
+ * so that one huge array, e.g. the HashMap table, is scanned by all the workers. The
+ * per-worker results are merged once the walk is done, and match the ones from
+ * {@link ObjectGraphWalker}.
+ */
+public class ParallelObjectGraphWalker {
+
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Number of elements in the slice of the large reference array the workers share.
+     */
+    public static final int ARRAY_CHUNK = 1024;
+
+    private final Object root;
+    private final int threads;
+    private final ConcurrentIdentitySet visited;
+    private final ConcurrentLinkedQueue<Object[]> batches = new ConcurrentLinkedQueue<Object[]>();
+
+    // batches in the queue plus batches being processed; the walk is done when this drops to zero
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Multiset<Class<?>> classSizes = new Multiset<Class<?>>();
+    private final Multiset<Class<?>> classCounts = new Multiset<Class<?>>();
+    private boolean walked;
+
+    public ParallelObjectGraphWalker(Object root) {
+        this(root, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelObjectGraphWalker(Object root, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Should have at least one thread: " + threads);
+        }
+        this.root = root;
+        this.threads = threads;
+        this.visited = new ConcurrentIdentitySet(threads);
+    }
+
+    private synchronized void walk() {
+        if (walked) return;
+        walked = true;
+
+        visited.add(root);
+        pending.incrementAndGet();
+        batches.add(new Object[]{root});
+
+        Worker[] workers = new Worker[threads];
+        Thread[] workerThreads = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker();
+            workerThreads[t] = new Thread(workers[t], "object-graph-walker-" + t);
+            workerThreads[t].setDaemon(true);
+            workerThreads[t].start();
+        }
+
+        for (Thread t : workerThreads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        for (Worker w : workers) {
+            if (w.failure != null) {
+                throw new IllegalStateException("Worker had failed", w.failure);
+            }
+            classCounts.merge(w.classCounts);
+            classSizes.merge(w.classSizes);
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Multiset<Class<?>> classSizes = new Multiset<Class<?>>();
+        private final Multiset<Class<?>> classCounts = new Multiset<Class<?>>();
+        private final ObjectBuffer stack = new ObjectBuffer(BATCH_SIZE * 4);
+        private Throwable failure;
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Object[] batch = batches.poll();
+                    if (batch == null) {
+                        if (pending.get() <= 0) return;
+                        LockSupport.parkNanos(10000);
+                        continue;
+                    }
+
+                    for (Object o : batch) {
+                        stack.add(o);
+                    }
+                    drain();
+                    pending.decrementAndGet();
+                }
+            } catch (Throwable t) {
+                failure = t;
+
+                // make sure the other workers do not wait for us
+                pending.set(0);
+            }
+        }
+
+        private void drain() {
+            while (!stack.isEmpty()) {
+                Object o = stack.removeLast();
+                if (o instanceof ArraySlice) {
+                    ArraySlice slice = (ArraySlice) o;
+                    pushElements(slice.array, slice.from, slice.to);
+                } else {
+                    visitObject(o);
+                    peelReferences(o);
+                }
+
+                if (stack.size() > BATCH_SIZE && batches.isEmpty()) {
+                    Object[] batch = new Object[BATCH_SIZE];
+                    for (int c = 0; c < BATCH_SIZE; c++) {
+                        batch[c] = stack.removeLast();
+                    }
+                    pending.incrementAndGet();
+                    batches.add(batch);
+                }
+            }
+        }
+
+        private void peelReferences(Object o) {
+            Class<?> klass = o.getClass();
+
+            if (klass.isArray()) {
+                if (!klass.getComponentType().isPrimitive()) {
+                    Object[] array = (Object[]) o;
+                    if (array.length <= ARRAY_CHUNK) {
+                        pushElements(array, 0, array.length);
+                        return;
+                    }
+
+                    // keep the first slice, share the rest
+                    for (int from = ARRAY_CHUNK; from < array.length; from += ARRAY_CHUNK) {
+                        pending.incrementAndGet();
+                        batches.add(new Object[]{new ArraySlice(array, from, Math.min(array.length, from + ARRAY_CHUNK))});
+                    }
+                    pushElements(array, 0, ARRAY_CHUNK);
+                }
+                return;
+            }
+
+            for (long off : ClassLayout.of(klass).getReferenceOffsets()) {
+                push(VMSupport.U.getObject(o, off));
+            }
+        }
+
+        private void pushElements(Object[] array, int from, int to) {
+            for (int i = from; i < to; i++) {
+                push(array[i]);
+            }
+        }
+
+        private void push(Object ref) {
+            if (ref != null && visited.add(ref)) {
+                stack.add(ref);
+            }
+        }
+
+        private void visitObject(Object o) {
+            Class<?> klass = o.getClass();
+            classCounts.add(klass);
+            try {
+                classSizes.add(klass, ObjectLayout.sizeOf(o));
+            } catch (Exception e) {
+                classSizes.add(klass, 0);
+            }
+        }
+    }
+
+    /**
+     * Elements of the large reference array yet to be scanned; never part of the walked graph.
+     */
+    private static class ArraySlice {
+        private final Object[] array;
+        private final int from;
+        private final int to;
+
+        ArraySlice(Object[] array, int from, int to) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public Multiset<Class<?>> getClassSizes() {
+        walk();
+        return classSizes;
+    }
+
+    public Multiset<Class<?>> getClassCounts() {
+        walk();
+        return classCounts;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.IdentityIntMap;
+import net.shipilev.tools.objectlayout.util.IntList;
+import net.shipilev.tools.objectlayout.util.LongList;
+
+import java.util.List;
+
+/**
+ * Answers "why is this object alive": the breadth-first walk from the roots remembers
+ * the parent and the field for every object, so that the shortest reference path to any
+ * object is the walk up the tree. Unlike {@link IndexedObjectGraph}, the edges are not kept:
+ * this is 20 bytes per node in primitive arrays, plus the identity map from objects to nodes,
+ * 16 to 32 bytes per node with compressed references. The map holds the objects strongly,
+ * drop the index when done.
+ * <p>
+ * When there is more than one root, node 0 is the synthetic "(roots)" node referencing
+ * all the roots, and the paths start with "root[]".
+ * <p>
+ * The walk takes the {@link WalkLimits}, except for the subtree budget; without the limits,
+ * it stops at {@link #DEFAULT_MAX_NODES} objects. The objects past the limits are not
+ * in the index, see {@link #getLimitReached()}.
+ */
+public class ReferencePathIndex extends ObjectPathIndex {
+
+    /**
+     * Objects to index when no limits are given, about 400 MB of the index.
+     */
+    public static final long DEFAULT_MAX_NODES = 10000000;
+
+    private static final WalkLimits DEFAULT_LIMITS = new WalkLimits().setMaxNodes(DEFAULT_MAX_NODES);
+
+    private final IdentityIntMap ids;
+    private final IntList classIds = new IntList();
+    private final LongList sizes = new LongList();
+    private final IntList parents = new IntList();
+    private final IntList parentFields = new IntList();
+    private final List<String> classNames;
+    private final List<String> fieldNames;
+    private final String limitReached;
+
+    /**
+     * @param filter filter for the other objects to take in
+     * @param roots roots to walk from, always taken in
+     */
+    public ReferencePathIndex(ObjectFilter filter, Object... roots) {
+        this(filter, null, roots);
+    }
+
+    /**
+     * @param filter filter for the other objects to take in
+     * @param limits limits for the walk, or null for the default node limit
+     * @param roots roots to walk from, always taken in
+     */
+    public ReferencePathIndex(ObjectFilter filter, WalkLimits limits, Object... roots) {
+        BreadthFirstWalker walker = new BreadthFirstWalker(filter, (limits == null) ? DEFAULT_LIMITS : limits, false);
+        walker.walk(roots, new BreadthFirstWalker.Listener<RuntimeException>() {
+            @Override
+            public void onNode(int id, Object o, int classId, long size, int parent, int field) {
+                classIds.add(classId);
+                sizes.add(size);
+                parents.add(parent);
+                parentFields.add(field);
+            }
+
+            @Override
+            public void onExpand(int id) {
+                // do nothing
+            }
+
+            @Override
+            public void onEdge(int from, int to) {
+                // do nothing
+            }
+        });
+
+        ids = walker.getIds();
+        classNames = walker.getClassNames();
+        fieldNames = walker.getFieldNames();
+        limitReached = walker.getLimitReached();
+
+        classIds.trim();
+        sizes.trim();
+        parents.trim();
+        parentFields.trim();
+    }
+
+    /**
+     * @return the limit which had stopped the walk, e.g. "max nodes (1000)"; or null,
+     * if the index has all the objects reachable from the roots
+     */
+    public String getLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * @return node id for the object, or -1 if the object is not reachable from the roots
+     */
+    public int getId(Object o) {
+        return ids.get(o);
+    }
+
+    /**
+     * @return shortest field path from the roots to the object, or null if the object
+     * is not reachable from the roots
+     */
+    public String getPath(Object o) {
+        int id = ids.get(o);
+        return (id < 0) ? null : getPath(id);
+    }
+
+    @Override
+    public int size() {
+        return parents.size();
+    }
+
+    @Override
+    public String getClassName(int id) {
+        return classNames.get(classIds.get(id));
+    }
+
+    @Override
+    public long getShallowSize(int id) {
+        return sizes.get(id);
+    }
+
+    @Override
+    public int getParent(int id) {
+        return parents.get(id);
+    }
+
+    @Override
+    public int getParentField(int id) {
+        return parentFields.get(id);
+    }
+
+    @Override
+    public String getFieldName(int fieldId) {
+        return fieldNames.get(fieldId);
+    }
+
+    @Override
+    public int getFieldCount() {
+        return fieldNames.size();
+    }
+
+}
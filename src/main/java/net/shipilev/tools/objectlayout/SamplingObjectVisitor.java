@@ -0,0 +1,45 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+/**
+ * Visitor which has the walker follow only some of the elements of the reference arrays:
+ * the elements start, start + step, start + 2 * step, and so on.
+ */
+public interface SamplingObjectVisitor extends ObjectVisitor {
+
+    /**
+     * Called when the walker is about to walk the elements of the array
+     * it had just reported.
+     *
+     * @return step between the walked elements, 1 to walk them all
+     */
+    int getArrayStep(Object[] array);
+
+    /**
+     * Called after {@link #getArrayStep(Object[])} returned the step larger than 1.
+     *
+     * @return first element to walk, in [0; step)
+     */
+    int getArrayStart(Object[] array, int step);
+
+}
@@ -0,0 +1,459 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The model of the VM object layout: the object header parts, the array header, the reference
+ * size, the object alignment, and the rules the VM follows to place the fields. The sizes can be
+ * computed from the model alone, without the Instrumentation and without looking at the objects.
+ * <p>
+ * The model for the running VM is {@link VMSupport#LAYOUT}; it is checked against the
+ * Instrumentation, when the agent is enabled. The hypothetical models can be constructed
+ * directly, to see how the sizes change under the other VM settings.
+ * <p>
+ * The field placement follows the simple packing model: every class in the hierarchy places its
+ * fields largest first, into the first gap that fits. Older VMs start every class at the reference
+ * size boundary after its superclass, and only fill the gaps of the class itself; newer VMs also
+ * fill the gaps left by the superclasses. The model knows nothing about @Contended.
+ */
+public class VMLayout {
+
+    /**
+     * Array length is the Java int on all VMs.
+     */
+    public static final int ARRAY_LENGTH_SIZE = 4;
+
+    private final String name;
+    private final int addressSize;
+    private final int markWordSize;
+    private final int klassPointerSize;
+    private final int referenceSize;
+    private final int objectAlignment;
+    private final boolean wordAlignedArrays;
+    private final boolean fillsSuperGaps;
+
+    /**
+     * @param name              model name, for the reports
+     * @param addressSize       native address size, also the machine word size
+     * @param markWordSize      mark word size
+     * @param klassPointerSize  klass pointer size, 0 if the klass pointer is kept in the mark word
+     * @param referenceSize     reference field size
+     * @param objectAlignment   object alignment, a power of two
+     * @param wordAlignedArrays true, if the array elements of all types start at the word boundary;
+     *                          false, if they only align to the element size
+     * @param fillsSuperGaps    true, if the subclass fields can go into the gaps left by the superclasses
+     */
+    public VMLayout(String name, int addressSize, int markWordSize, int klassPointerSize, int referenceSize,
+                    int objectAlignment, boolean wordAlignedArrays, boolean fillsSuperGaps) {
+        if (addressSize != 4 && addressSize != 8) {
+            throw new IllegalArgumentException("Unsupported address size: " + addressSize);
+        }
+        if (markWordSize <= 0 || klassPointerSize < 0) {
+            throw new IllegalArgumentException("Illegal header sizes: " + markWordSize + ", " + klassPointerSize);
+        }
+        if (referenceSize != 4 && referenceSize != 8) {
+            throw new IllegalArgumentException("Unsupported reference size: " + referenceSize);
+        }
+        if (objectAlignment < 4 || Integer.bitCount(objectAlignment) != 1) {
+            throw new IllegalArgumentException("Object alignment should be the power of two, at least 4: " + objectAlignment);
+        }
+        this.name = name;
+        this.addressSize = addressSize;
+        this.markWordSize = markWordSize;
+        this.klassPointerSize = klassPointerSize;
+        this.referenceSize = referenceSize;
+        this.objectAlignment = objectAlignment;
+        this.wordAlignedArrays = wordAlignedArrays;
+        this.fillsSuperGaps = fillsSuperGaps;
+    }
+
+    public VMLayout withName(String name) {
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps);
+    }
+
+    public VMLayout withKlassPointerSize(int klassPointerSize) {
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps);
+    }
+
+    public VMLayout withReferenceSize(int referenceSize) {
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps);
+    }
+
+    public VMLayout withObjectAlignment(int objectAlignment) {
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps);
+    }
+
+    public VMLayout withWordAlignedArrays(boolean wordAlignedArrays) {
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps);
+    }
+
+    public VMLayout withFillsSuperGaps(boolean fillsSuperGaps) {
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAddressSize() {
+        return addressSize;
+    }
+
+    public int getMarkWordSize() {
+        return markWordSize;
+    }
+
+    /**
+     * @return klass pointer size, 0 if the klass pointer is kept in the mark word
+     */
+    public int getKlassPointerSize() {
+        return klassPointerSize;
+    }
+
+    public boolean isCompressedKlass() {
+        return klassPointerSize > 0 && klassPointerSize < addressSize;
+    }
+
+    public int getReferenceSize() {
+        return referenceSize;
+    }
+
+    public int getObjectAlignment() {
+        return objectAlignment;
+    }
+
+    public boolean isWordAlignedArrays() {
+        return wordAlignedArrays;
+    }
+
+    public boolean isFillsSuperGaps() {
+        return fillsSuperGaps;
+    }
+
+    /**
+     * @return the largest heap the references can address, or Long.MAX_VALUE if the references
+     * are not compressed; the compressed references are shifted by the alignment bits
+     */
+    public long getMaxHeapSize() {
+        if (referenceSize < addressSize) {
+            return (1L << (referenceSize * 8)) * objectAlignment;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return object header size; the instance fields may start right after it
+     */
+    public int getHeaderSize() {
+        return markWordSize + klassPointerSize;
+    }
+
+    public int getArrayLengthOffset() {
+        return getHeaderSize();
+    }
+
+    /**
+     * @param elementSize array element size
+     * @return offset of the first array element
+     */
+    public int getArrayBaseOffset(int elementSize) {
+        int align = wordAlignedArrays ? Math.max(addressSize, elementSize) : elementSize;
+        return roundUp(getArrayLengthOffset() + ARRAY_LENGTH_SIZE, align);
+    }
+
+    /**
+     * @return array size, already aligned
+     */
+    public long arraySize(int elementSize, int length) {
+        return align(getArrayBaseOffset(elementSize) + (long) length * elementSize);
+    }
+
+    public long arraySize(Class<?> componentType, int length) {
+        return arraySize(sizeOfType(componentType), length);
+    }
+
+    /**
+     * @return field size of the given type, or the reference size for the non-primitive types
+     */
+    public int sizeOfType(Class<?> type) {
+        if (type.isPrimitive()) {
+            return VMSupport.sizeOfType(type);
+        }
+        return referenceSize;
+    }
+
+    public int align(int addr) {
+        return roundUp(addr, objectAlignment);
+    }
+
+    public long align(long addr) {
+        return (addr + objectAlignment - 1) & -objectAlignment;
+    }
+
+    /**
+     * Instance size under this model, already aligned.
+     *
+     * @param klass non-array class
+     */
+    public int instanceSize(Class<?> klass) {
+        if (klass.isArray()) {
+            throw new IllegalArgumentException("Array class: " + klass.getName());
+        }
+        List<int[]> levels = new ArrayList<int[]>();
+        for (Class<?> k = klass; k != null; k = k.getSuperclass()) {
+            List<Integer> sizes = new ArrayList<Integer>();
+            for (Field f : k.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    sizes.add(sizeOfType(f.getType()));
+                }
+            }
+            int[] level = new int[sizes.size()];
+            for (int c = 0; c < level.length; c++) {
+                level[c] = sizes.get(c);
+            }
+            levels.add(0, level);
+        }
+        return instanceSize(levels);
+    }
+
+    /**
+     * Instance size under this model, already aligned.
+     *
+     * @param levels field sizes of every class in the hierarchy, the topmost superclass first
+     */
+    public int instanceSize(List<int[]> levels) {
+        int end = getHeaderSize();
+        boolean first = true;
+
+        // gap starts and ends
+        List<int[]> gaps = new ArrayList<int[]>();
+        for (int[] level : levels) {
+            if (level.length == 0) continue;
+            if (!fillsSuperGaps) {
+                if (!first) {
+                    end = roundUp(end, referenceSize);
+                }
+                gaps.clear();
+            }
+            first = false;
+
+            int[] sizes = level.clone();
+            Arrays.sort(sizes);
+
+            for (int c = sizes.length - 1; c >= 0; c--) {
+                int size = sizes[c];
+                boolean placed = false;
+                for (int g = 0; g < gaps.size(); g++) {
+                    int[] gap = gaps.get(g);
+                    int off = roundUp(gap[0], size);
+                    if (off + size <= gap[1]) {
+                        gaps.remove(g);
+                        if (off + size < gap[1]) gaps.add(g, new int[]{off + size, gap[1]});
+                        if (gap[0] < off) gaps.add(g, new int[]{gap[0], off});
+                        placed = true;
+                        break;
+                    }
+                }
+                if (!placed) {
+                    int off = roundUp(end, size);
+                    if (off > end) {
+                        gaps.add(new int[]{end, off});
+                    }
+                    end = off + size;
+                }
+            }
+        }
+        return align(end);
+    }
+
+    /**
+     * Compares the model sizes for the sample objects and arrays with the ones
+     * the VM reports, and the array base offsets with the ones from Unsafe.
+     *
+     * @return mismatches, empty if the model agrees with the VM
+     */
+    public List<String> verify(Instrumentation inst) {
+        List<String> mismatches = new ArrayList<String>();
+
+        for (Class<?> k : PROBE_CLASSES) {
+            try {
+                long actual = inst.getObjectSize(VMSupport.U.allocateInstance(k));
+                long model = instanceSize(k);
+                if (actual != model) {
+                    mismatches.add(k.getName() + ": " + model + " bytes in the model, " + actual + " bytes in the VM");
+                }
+            } catch (InstantiationException e) {
+                mismatches.add(k.getName() + ": cannot instantiate");
+            }
+        }
+
+        for (Class<?> c : PROBE_COMPONENTS) {
+            Object empty = Array.newInstance(c, 0);
+            int base = VMSupport.U.arrayBaseOffset(empty.getClass());
+            if (base != getArrayBaseOffset(sizeOfType(c))) {
+                mismatches.add(c.getName() + "[]: elements start at " + getArrayBaseOffset(sizeOfType(c)) + " in the model, at " + base + " in the VM");
+            }
+            for (int length : PROBE_LENGTHS) {
+                long actual = inst.getObjectSize(Array.newInstance(c, length));
+                long model = arraySize(c, length);
+                if (actual != model) {
+                    mismatches.add(c.getName() + "[" + length + "]: " + model + " bytes in the model, " + actual + " bytes in the VM");
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * @return the header breakdown, for the reports
+     */
+    public String describeHeader() {
+        if (klassPointerSize == 0) {
+            return markWordSize + "-byte mark word, with the klass pointer in it";
+        }
+        return markWordSize + "-byte mark word, " + klassPointerSize + "-byte " +
+                (isCompressedKlass() ? "compressed " : "") + "klass pointer";
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + describeHeader() + ", " + referenceSize + "-byte references, " +
+                objectAlignment + "-byte alignment";
+    }
+
+    private static int roundUp(int v, int align) {
+        return (v + align - 1) / align * align;
+    }
+
+    /**
+     * Builds the model for the running VM.
+     */
+    static VMLayout detect(String name, int referenceSize, int objectAlignment) {
+        int addressSize = VMSupport.ADDRESS_SIZE;
+        int markWordSize = addressSize;
+        int klassPointerSize = Math.max(0, VMSupport.HEADER_SIZE - markWordSize);
+
+        // when the length ends at the word boundary, both rules give the same offsets
+        // for the running VM; the elements stopped aligning to the word in JDK 22
+        int lengthEnd = VMSupport.HEADER_SIZE + ARRAY_LENGTH_SIZE;
+        int byteBase = VMSupport.U.arrayBaseOffset(byte[].class);
+        boolean wordAlignedArrays;
+        if (lengthEnd % addressSize != 0) {
+            wordAlignedArrays = byteBase != lengthEnd;
+        } else {
+            wordAlignedArrays = javaVersion() < 22;
+        }
+
+        return new VMLayout(name, addressSize, markWordSize, klassPointerSize, referenceSize, objectAlignment,
+                wordAlignedArrays, fillsSuperGaps());
+    }
+
+    static int javaVersion() {
+        String version = System.getProperty("java.specification.version", "1.6");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 6;
+        }
+    }
+
+    /**
+     * @return true, if the subclass fields go right after the superclass fields
+     */
+    private static boolean fillsSuperGaps() {
+        try {
+            long first = VMSupport.U.objectFieldOffset(Probes.Bytes.class.getDeclaredField("b1"));
+            long second = VMSupport.U.objectFieldOffset(Probes.BytesChild.class.getDeclaredField("b2"));
+            return second == first + 1;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the classes and arrays to check the sizes for, against the VM
+    static final Class<?>[] PROBE_CLASSES = {
+            Object.class, Boolean.class, Integer.class, Long.class, Double.class, String.class,
+            ArrayList.class, HashMap.class,
+            Probes.Empty.class, Probes.Bytes.class, Probes.Mixed.class, Probes.Refs.class,
+            Probes.MixedChild.class, Probes.BytesChild.class, Probes.LongChild.class,
+    };
+    static final Class<?>[] PROBE_COMPONENTS = {
+            boolean.class, byte.class, short.class, char.class, int.class, float.class, long.class, double.class,
+            Object.class
+    };
+    static final int[] PROBE_LENGTHS = {0, 1, 2, 3, 5, 8, 100};
+
+    static class Probes {
+        static class Empty {
+        }
+
+        static class Bytes {
+            byte b1;
+        }
+
+        static class BytesChild extends Bytes {
+            byte b2;
+        }
+
+        static class Mixed {
+            byte b;
+            short s;
+            int i;
+            long l;
+            Object o;
+        }
+
+        static class MixedChild extends Mixed {
+            boolean z;
+            char c;
+        }
+
+        static class Refs {
+            Object o1;
+            Object o2;
+            Object o3;
+        }
+
+        static class LongChild extends Bytes {
+            long l;
+        }
+    }
+
+}
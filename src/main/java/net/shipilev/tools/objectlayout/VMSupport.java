@@ -21,20 +21,28 @@
  */
 package net.shipilev.tools.objectlayout;
 
-import net.shipilev.tools.objectlayout.util.Multiset;
+import net.shipilev.tools.objectlayout.alloc.AllocationAgent;
 import sun.misc.Unsafe;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.management.RuntimeMBeanException;
 import javax.management.openmbean.CompositeDataSupport;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,27 +55,38 @@ public class VMSupport {
     public final static int HEADER_SIZE;
     private final static VMOptions OPTIONS;
 
+    /**
+     * Layout model of the running VM.
+     */
+    public final static VMLayout LAYOUT;
+
+    private static volatile List<String> LAYOUT_MISMATCHES = Collections.emptyList();
+    private static volatile List<String> SIZE_MISMATCHES = Collections.emptyList();
+
     private static class VMOptions {
         private final String name;
         private final boolean compressedRef;
         private final int compressRefShift;
         private final int objectAlignment;
         private final int referenceSize;
+        private final boolean compressedKlass;
 
-        public VMOptions(String name) {
-            this.name = name;
-            this.referenceSize = U.addressSize();
-            this.objectAlignment = guessAlignment(this.referenceSize);
-            this.compressedRef = false;
-            this.compressRefShift = 1;
+        public VMOptions(String name, int objectAlignment, boolean compressedKlass) {
+            this(name, U.addressSize(), false, 1, objectAlignment, compressedKlass);
+        }
+
+        public VMOptions(String name, int shift, int objectAlignment, boolean compressedKlass) {
+            this(name, 4, true, shift, objectAlignment, compressedKlass);
         }
 
-        public VMOptions(String name, int shift) {
+        private VMOptions(String name, int referenceSize, boolean compressedRef, int compressRefShift,
+                          int objectAlignment, boolean compressedKlass) {
             this.name = name;
-            this.referenceSize = 4;
-            this.objectAlignment = guessAlignment(this.referenceSize) << shift;
-            this.compressedRef = true;
-            this.compressRefShift = shift;
+            this.referenceSize = referenceSize;
+            this.compressedRef = compressedRef;
+            this.compressRefShift = compressRefShift;
+            this.objectAlignment = objectAlignment;
+            this.compressedKlass = compressedKlass;
         }
 
         public long toNativeAddress(long address) {
@@ -77,6 +96,33 @@ public class VMSupport {
                 return address;
             }
         }
+
+        public void store(Properties props) {
+            props.setProperty("name", name);
+            props.setProperty("referenceSize", String.valueOf(referenceSize));
+            props.setProperty("compressedRef", String.valueOf(compressedRef));
+            props.setProperty("compressRefShift", String.valueOf(compressRefShift));
+            props.setProperty("objectAlignment", String.valueOf(objectAlignment));
+            props.setProperty("compressedKlass", String.valueOf(compressedKlass));
+        }
+
+        public static VMOptions load(Properties props) {
+            return new VMOptions(
+                    props.getProperty("name"),
+                    Integer.parseInt(props.getProperty("referenceSize")),
+                    Boolean.parseBoolean(props.getProperty("compressedRef")),
+                    Integer.parseInt(props.getProperty("compressRefShift")),
+                    Integer.parseInt(props.getProperty("objectAlignment")),
+                    Boolean.parseBoolean(props.getProperty("compressedKlass"))
+            );
+        }
+    }
+
+    /**
+     * @return object alignment, in bytes; objects start at the multiples of this
+     */
+    public static int objectAlignment() {
+        return OPTIONS.objectAlignment;
     }
 
     public static int align(int addr) {
@@ -88,6 +134,15 @@ public class VMSupport {
         }
     }
 
+    public static long align(long addr) {
+        long align = OPTIONS.objectAlignment;
+        if ((addr % align) == 0) {
+            return addr;
+        } else {
+            return ((addr / align) + 1) * align;
+        }
+    }
+
     private static int log2p(int x) {
         int r = 0;
         while ((x >>= 1) != 0)
@@ -96,6 +151,23 @@ public class VMSupport {
     }
 
     private static VMOptions getOptions() {
+        // the VM model only depends on the VM itself and its flags, try the saved one first
+        String key = getCacheKey();
+        File cacheFile = getCacheFile(key);
+        if (cacheFile != null) {
+            VMOptions cached = loadOptions(cacheFile, key);
+            if (cached != null) return cached;
+        }
+
+        VMOptions opts = detectOptions();
+
+        if (cacheFile != null) {
+            storeOptions(cacheFile, key, opts);
+        }
+        return opts;
+    }
+
+    private static VMOptions detectOptions() {
         // try Hotspot
         VMOptions hsOpts = getHotspotSpecifics();
         if (hsOpts != null) return hsOpts;
@@ -117,9 +189,114 @@ public class VMSupport {
         }
 
         if (oopSize != U.addressSize()) {
-            return new VMOptions("Auto-detected", 3); // assume compressed references have << 3 shift
+            // assume compressed references have << 3 shift
+            return new VMOptions("Auto-detected", 3, guessAlignment(4) << 3, true);
         } else {
-            return new VMOptions("Auto-detected");
+            return new VMOptions("Auto-detected", guessAlignment(U.addressSize()), false);
+        }
+    }
+
+    private static String getCacheKey() {
+        StringBuilder sb = new StringBuilder();
+        for (String prop : new String[]{"java.vm.name", "java.vm.vendor", "java.vm.version", "os.arch"}) {
+            sb.append(System.getProperty(prop)).append('|');
+        }
+
+        // compressed references are chosen based on the heap size, even if it is not set explicitly
+        sb.append(Runtime.getRuntime().maxMemory()).append('|');
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // system properties do not affect the layout
+            if (arg.startsWith("-D")) continue;
+            sb.append(arg).append('|');
+        }
+        return sb.toString();
+    }
+
+    private static File getCacheFile(String key) {
+        if (!Boolean.parseBoolean(System.getProperty("objectlayout.vmCache", "true"))) {
+            return null;
+        }
+        File dir = new File(System.getProperty("objectlayout.vmCacheDir",
+                System.getProperty("user.home") + File.separator + ".java-object-layout"));
+        return new File(dir, "vm-" + Integer.toHexString(key.hashCode()) + ".properties");
+    }
+
+    private static VMOptions loadOptions(File file, String key) {
+        if (!file.exists()) return null;
+
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            Properties props = new Properties();
+            props.load(is);
+
+            // different keys might collide in the file name
+            if (!key.equals(props.getProperty("key"))) return null;
+
+            return VMOptions.load(props);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // malformed file, re-detect
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    private static void storeOptions(File file, String key, VMOptions opts) {
+        // the cache is optional, the failures to write it are not fatal
+        OutputStream os = null;
+        File tmp = null;
+        try {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+            Properties props = new Properties();
+            props.setProperty("key", key);
+            opts.store(props);
+
+            // write the complete file aside, and then move it over, so that
+            // the concurrently starting VMs never see the partial file
+            tmp = File.createTempFile("vm-", ".tmp", dir);
+            os = new FileOutputStream(tmp);
+            props.store(os, "Java Object Layout: detected VM model");
+            os.close();
+            os = null;
+
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (IOException e) {
+            // do nothing
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+            if (tmp != null && tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static String getVMOption(MBeanServer server, ObjectName mbean, String option) throws Exception {
+        try {
+            CompositeDataSupport value = (CompositeDataSupport) server.invoke(mbean, "getVMOption", new Object[]{option}, new String[]{"java.lang.String"});
+            return value.get("value").toString();
+        } catch (RuntimeMBeanException e) {
+            // no such option in this VM
+            return null;
         }
     }
 
@@ -131,22 +308,24 @@ public class VMSupport {
 
         try {
             MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName mbean = new ObjectName("com.sun.management:type=HotSpotDiagnostic");
 
-            try {
-                ObjectName mbean = new ObjectName("com.sun.management:type=HotSpotDiagnostic");
-                CompositeDataSupport compressedOopsValue = (CompositeDataSupport) server.invoke(mbean, "getVMOption", new Object[]{"UseCompressedOops"}, new String[]{"java.lang.String"});
-                boolean compressedOops = Boolean.valueOf(compressedOopsValue.get("value").toString());
-                if (compressedOops) {
-                    // if compressed oops are enabled, then this option is also accessible
-                    CompositeDataSupport alignmentValue = (CompositeDataSupport) server.invoke(mbean, "getVMOption", new Object[]{"ObjectAlignmentInBytes"}, new String[]{"java.lang.String"});
-                    int align = Integer.valueOf(alignmentValue.get("value").toString());
-                    return new VMOptions("HotSpot", log2p(align));
-                } else {
-                    return new VMOptions("HotSpot");
-                }
+            String compressedOopsValue = getVMOption(server, mbean, "UseCompressedOops");
+            boolean compressedOops = Boolean.valueOf(compressedOopsValue);
+
+            // before JDK 8, class pointers were compressed along with the references
+            String compressedKlassValue = getVMOption(server, mbean, "UseCompressedClassPointers");
+            boolean compressedKlass = (compressedKlassValue != null) ? Boolean.valueOf(compressedKlassValue) : compressedOops;
+
+            // older VMs only expose this with compressed oops enabled, probe the heap otherwise
+            String alignmentValue = getVMOption(server, mbean, "ObjectAlignmentInBytes");
 
-            } catch (RuntimeMBeanException iae) {
-                return new VMOptions("HotSpot");
+            if (compressedOops) {
+                int align = (alignmentValue != null) ? Integer.valueOf(alignmentValue) : guessAlignment(4) << 3;
+                return new VMOptions("HotSpot", log2p(align), align, compressedKlass);
+            } else {
+                int align = (alignmentValue != null) ? Integer.valueOf(alignmentValue) : guessAlignment(U.addressSize());
+                return new VMOptions("HotSpot", align, compressedKlass);
             }
         } catch (RuntimeException re) {
             System.err.println("Failed to read HotSpot-specific configuration properly, please report this as the bug");
@@ -174,9 +353,10 @@ public class VMSupport {
                     Pattern pattern = Pattern.compile("(.*?)References are compressed, with heap base (.*?) and shift (.*?)\\.");
                     Matcher matcher = pattern.matcher(s);
                     if (matcher.matches()) {
-                        return new VMOptions("JRockit", Integer.valueOf(matcher.group(3)));
+                        int shift = Integer.valueOf(matcher.group(3));
+                        return new VMOptions("JRockit", shift, guessAlignment(4) << shift, true);
                     } else {
-                        return new VMOptions("JRockit");
+                        return new VMOptions("JRockit", guessAlignment(U.addressSize()), false);
                     }
                 }
             }
@@ -216,18 +396,61 @@ public class VMSupport {
         ADDRESS_SIZE = U.addressSize();
         HEADER_SIZE = headerSize;
         OPTIONS = getOptions();
+        LAYOUT = VMLayout.detect(OPTIONS.name, OPTIONS.referenceSize, OPTIONS.objectAlignment);
     }
 
     public static void storeInstrumentation(Instrumentation inst) {
+        LAYOUT_MISMATCHES = LAYOUT.verify(inst);
+        SIZE_MISMATCHES = ObjectLayout.verifySizes(inst);
         VMSupport.INSTRUMENTATION = inst;
     }
 
+    /**
+     * @return the differences between {@link #LAYOUT} and the sizes reported by the
+     * Instrumentation; empty if they agree, or if the agent is not enabled
+     */
+    public static List<String> layoutMismatches() {
+        return LAYOUT_MISMATCHES;
+    }
+
+    /**
+     * @return true, if the sizes can be computed from the field offsets and the array layouts;
+     * otherwise, the sizes should be asked from the Instrumentation
+     */
+    static boolean trustsLayout() {
+        return INSTRUMENTATION == null || SIZE_MISMATCHES.isEmpty();
+    }
+
     public static void detect(PrintStream out) {
         out.println("Running " + (VMSupport.ADDRESS_SIZE * 8) + "-bit " + OPTIONS.name + " VM.");
         if (OPTIONS.compressedRef)
             out.println("Using compressed references with " + OPTIONS.compressRefShift + "-bit shift.");
 
+        if (OPTIONS.compressedKlass)
+            out.println("Using compressed klass pointers.");
+
         out.println("Objects are " + OPTIONS.objectAlignment + " bytes aligned.");
+        out.println("Object header: " + LAYOUT.describeHeader() + ".");
+        out.println("Array header: " + VMLayout.ARRAY_LENGTH_SIZE + "-byte length at offset " + LAYOUT.getArrayLengthOffset() +
+                ", elements start at offset " + LAYOUT.getArrayBaseOffset(1) + " for bytes, " + LAYOUT.getArrayBaseOffset(8) + " for longs.");
+
+        if (INSTRUMENTATION != null) {
+            List<String> mismatches = LAYOUT_MISMATCHES;
+            if (mismatches.isEmpty()) {
+                out.println("Layout model matches the sizes reported by VM.");
+            } else {
+                out.println("Layout model does not match the sizes reported by VM:");
+                for (String m : mismatches) {
+                    out.println("  " + m);
+                }
+            }
+            if (!SIZE_MISMATCHES.isEmpty()) {
+                out.println("Object sizes do not match the sizes reported by VM, using the VM sizes:");
+                for (String m : SIZE_MISMATCHES) {
+                    out.println("  " + m);
+                }
+            }
+        }
         out.println();
     }
 
@@ -240,35 +463,38 @@ public class VMSupport {
         public boolean b1;
     }
 
+    /**
+     * Guesses the object alignment from the distances between the freshly allocated objects.
+     * This is the last resort when the VM does not tell the alignment itself.
+     */
     public static int guessAlignment(int oopSize) {
-        final int COUNT = 1000 * 1000;
+        final int COUNT = 4 * 1024;
         Object[] array = new Object[COUNT];
         long[] offsets = new long[COUNT];
 
-        for (int c = 0; c < COUNT - 3; c += 3) {
+        for (int c = 0; c < COUNT - 2; c += 3) {
             array[c + 0] = new MyObject1();
             array[c + 1] = new MyObject2();
-            array[c + 1] = new MyObject3();
+            array[c + 2] = new MyObject3();
         }
 
-        for (int c = 0; c < COUNT; c++) {
-            offsets[c] = addressOf(array[c], oopSize);
+        int count = 0;
+        for (Object o : array) {
+            if (o != null) {
+                offsets[count++] = addressOf(o, oopSize);
+            }
         }
 
-        Arrays.sort(offsets);
-
-        List<Integer> sizes = new ArrayList<Integer>();
-        for (int c = 1; c < COUNT; c++) {
-            sizes.add((int) (offsets[c] - offsets[c - 1]));
-        }
+        Arrays.sort(offsets, 0, count);
 
         int min = -1;
-        for (int s : sizes) {
-            if (s <= 0) continue;
+        for (int c = 1; c < count; c++) {
+            long s = offsets[c] - offsets[c - 1];
+            if (s <= 0 || s > Integer.MAX_VALUE) continue;
             if (min == -1) {
-                min = s;
+                min = (int) s;
             } else {
-                min = gcd(min, s);
+                min = gcd(min, (int) s);
             }
         }
 
@@ -301,8 +527,20 @@ public class VMSupport {
     }
 
     public static long addressOf(Object o, int oopSize) {
-        Object[] array = new Object[]{o};
+        return readAddress(new Object[]{o}, oopSize);
+    }
+
+    /**
+     * Same as {@link #addressOf(Object)}, but reuses the given single-element array.
+     */
+    public static long addressOf(Object o, Object[] holder) {
+        holder[0] = o;
+        long address = readAddress(holder, OPTIONS.referenceSize);
+        holder[0] = null;
+        return address;
+    }
 
+    private static long readAddress(Object[] array, int oopSize) {
         long baseOffset = U.arrayBaseOffset(Object[].class);
         long objectAddress;
         switch (oopSize) {
@@ -319,19 +557,15 @@ public class VMSupport {
         return (objectAddress);
     }
 
-    private static int sizeOfArray(Object o) {
-        int base = U.arrayBaseOffset(o.getClass());
-        int scale = U.arrayIndexScale(o.getClass());
-        Class<?> type = o.getClass().getComponentType();
-        if (type == boolean.class) return base + ((boolean[]) o).length * scale;
-        if (type == byte.class) return base + ((byte[]) o).length * scale;
-        if (type == short.class) return base + ((short[]) o).length * scale;
-        if (type == char.class) return base + ((char[]) o).length * scale;
-        if (type == int.class) return base + ((int[]) o).length * scale;
-        if (type == float.class) return base + ((float[]) o).length * scale;
-        if (type == long.class) return base + ((long[]) o).length * scale;
-        if (type == double.class) return base + ((double[]) o).length * scale;
-        return base + ((Object[]) o).length * scale;
+    /**
+     * @return total number of collections done by all the collectors so far
+     */
+    public static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
     }
 
     public static int sizeOfType(Class<?> type) {
@@ -348,6 +582,9 @@ public class VMSupport {
 
     public static void premain(String agentArgs, Instrumentation inst) {
         VMSupport.storeInstrumentation(inst);
+        if (agentArgs != null && AllocationAgent.isRequested(agentArgs)) {
+            AllocationAgent.install(agentArgs, inst);
+        }
     }
 
 }
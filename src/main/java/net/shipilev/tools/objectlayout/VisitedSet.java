@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+/**
+ * Tracks the objects already seen by the walker.
+ */
+public interface VisitedSet {
+
+    /**
+     * @return true, if object was not seen before
+     */
+    boolean add(Object o);
+
+    /**
+     * Some implementations are not able to track the objects over some VM events,
+     * e.g. objects moved by GC. The walk should be redone with another set
+     * if this returns false. The walker checks this every few thousand objects,
+     * so that it can give up on the set early.
+     */
+    boolean isReliable();
+
+    /**
+     * Frees the resources held by the set. The set is not usable afterwards.
+     */
+    void release();
+
+}
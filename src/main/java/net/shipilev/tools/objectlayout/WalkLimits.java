@@ -0,0 +1,250 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import net.shipilev.tools.objectlayout.util.ClassCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Bounds the walk, so that the walks in production have the predictable latency and memory.
+ * <ul>
+ *     <li>max depth: the objects further than this many references from the root are not reached;</li>
+ *     <li>max nodes, max bytes: the walk stops once it had reported this many objects or bytes;</li>
+ *     <li>max time: the walk stops once it runs for this long, checked every few thousand
+ *     scanned references, even when they are nulls or lead to the objects already seen;</li>
+ *     <li>pruned fields: the references through the fields with the matching names are not followed;</li>
+ *     <li>pruned classes: the instances of the matching classes, or their subclasses, are not reached;</li>
+ *     <li>subtree budget: once the subtree hanging off the object at the given depth grows past
+ *     the budget, the walk stops descending into it, and reports it as truncated.</li>
+ * </ul>
+ * The patterns are the names with "*" wildcards, e.g. "java.lang.ClassLoader", "sun.*", "*Listener*".
+ * The objects not reached through the pruned fields are still reached through the other paths.
+ * The limits are meant to be set up once, and then shared between the walkers.
+ */
+public class WalkLimits {
+
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxNodes = Long.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private long maxTimeNanos = Long.MAX_VALUE;
+    private long subtreeBudget = Long.MAX_VALUE;
+    private int subtreeDepth = 1;
+
+    private final List<Pattern> fieldPatterns = new ArrayList<Pattern>();
+    private final List<Pattern> classPatterns = new ArrayList<Pattern>();
+    private volatile ClassCache<Boolean> prunedClasses = newPrunedClasses();
+    private volatile ClassCache<boolean[]> prunedFields = newPrunedFields();
+
+    /**
+     * @param maxDepth deepest objects to reach, the roots being at depth 0
+     */
+    public WalkLimits setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Max depth should not be negative: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    public WalkLimits setMaxNodes(long maxNodes) {
+        if (maxNodes <= 0) {
+            throw new IllegalArgumentException("Max nodes should be positive: " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+        return this;
+    }
+
+    public WalkLimits setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes should be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * @param maxTimeNanos time to walk for, in nanoseconds
+     */
+    public WalkLimits setMaxTime(long maxTimeNanos) {
+        if (maxTimeNanos <= 0) {
+            throw new IllegalArgumentException("Max time should be positive: " + maxTimeNanos);
+        }
+        this.maxTimeNanos = maxTimeNanos;
+        return this;
+    }
+
+    /**
+     * @param budget bytes to walk in every subtree
+     * @param depth depth of the subtree roots; 1 makes every object referenced by the root the subtree root
+     */
+    public WalkLimits setSubtreeBudget(long budget, int depth) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget should be positive: " + budget);
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("Subtree depth should be at least 1: " + depth);
+        }
+        this.subtreeBudget = budget;
+        this.subtreeDepth = depth;
+        return this;
+    }
+
+    public WalkLimits pruneField(String pattern) {
+        fieldPatterns.add(compile(pattern));
+        prunedFields = newPrunedFields();
+        return this;
+    }
+
+    public WalkLimits pruneClass(String pattern) {
+        classPatterns.add(compile(pattern));
+        prunedClasses = newPrunedClasses();
+        return this;
+    }
+
+    private static Pattern compile(String pattern) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : pattern.split("\\*", -1)) {
+            if (sb.length() > 0 || pattern.startsWith("*")) {
+                sb.append(".*");
+            }
+            sb.append(Pattern.quote(part));
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    private ClassCache<Boolean> newPrunedClasses() {
+        return new ClassCache<Boolean>() {
+            @Override
+            protected Boolean compute(Class<?> klass) {
+                for (Class<?> k = klass; k != null; k = k.getSuperclass()) {
+                    if (matches(classPatterns, k.getName())) return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private ClassCache<boolean[]> newPrunedFields() {
+        return new ClassCache<boolean[]>() {
+            @Override
+            protected boolean[] compute(Class<?> klass) {
+                if (klass.isArray()) {
+                    return new boolean[]{matches(fieldPatterns, ObjectPathIndex.ARRAY_ELEMENT)};
+                }
+                String[] names = ClassLayout.of(klass).getReferenceNames();
+                boolean[] pruned = new boolean[names.length];
+                for (int c = 0; c < names.length; c++) {
+                    pruned[c] = matches(fieldPatterns, names[c]);
+                }
+                return pruned;
+            }
+        };
+    }
+
+    private static boolean matches(List<Pattern> patterns, String name) {
+        for (Pattern p : patterns) {
+            if (p.matcher(name).matches()) return true;
+        }
+        return false;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return max time to walk for, in nanoseconds
+     */
+    public long getMaxTime() {
+        return maxTimeNanos;
+    }
+
+    public long getSubtreeBudget() {
+        return subtreeBudget;
+    }
+
+    public int getSubtreeDepth() {
+        return subtreeDepth;
+    }
+
+    /**
+     * @return pruned flags for the reference fields of the class, as in {@link ClassLayout#getReferenceNames()};
+     * the single flag for the elements of the array class; or null, if no fields are pruned
+     */
+    boolean[] getPrunedFields(Class<?> klass) {
+        return fieldPatterns.isEmpty() ? null : prunedFields.get(klass);
+    }
+
+    boolean isPrunedClass(Class<?> klass) {
+        return !classPatterns.isEmpty() && prunedClasses.get(klass);
+    }
+
+    /**
+     * Subtree the walk did not descend into completely.
+     */
+    public static class Truncation {
+        private final String path;
+        private final String className;
+        private final long size;
+
+        Truncation(String path, String className, long size) {
+            this.path = path;
+            this.className = className;
+            this.size = size;
+        }
+
+        /**
+         * @return field path from the root to the subtree root, e.g. "root.cache.table"
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return bytes walked in the subtree before it was cut; the subtree is at least this large
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "truncated, >= " + size + " bytes: " + path + " (" + className + ")";
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.alloc;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.instrument.Instrumentation;
+
+/**
+ * Sets up the allocation profiling from the agent options:
+ * <pre>
+ *   -javaagent:java-object-layout.jar=alloc=com.acme.+org.example.,sampling=64,interval=10,top=20,out=alloc.txt
+ * </pre>
+ * <ul>
+ *     <li>alloc: package prefixes to instrument, separated by '+'; required;</li>
+ *     <li>sampling: record one allocation in this many, on average, 1 records all; 64 by default;</li>
+ *     <li>interval: seconds between the histogram dumps, 0 only dumps at exit; 10 by default;</li>
+ *     <li>top: number of classes and sites in the histograms; 20 by default;</li>
+ *     <li>out: file to append the histograms to; stderr by default.</li>
+ * </ul>
+ * Only the classes loaded after the agent starts are instrumented.
+ */
+public class AllocationAgent {
+
+    private AllocationAgent() {
+        // prevent instantiation
+    }
+
+    /**
+     * @return true, if the agent options ask for the allocation profiling, i.e. have the "alloc" option
+     */
+    public static boolean isRequested(String agentArgs) {
+        for (String option : agentArgs.split(",")) {
+            if (option.startsWith("alloc=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void install(String agentArgs, Instrumentation inst) {
+        String[] packages = null;
+        int sampling = 64;
+        int interval = 10;
+        int top = 20;
+        String out = null;
+
+        for (String option : agentArgs.split(",")) {
+            int eq = option.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Agent option should be key=value: " + option);
+            }
+            String key = option.substring(0, eq);
+            String value = option.substring(eq + 1);
+            if (key.equals("alloc")) {
+                packages = value.split("\\+");
+            } else if (key.equals("sampling")) {
+                sampling = Integer.parseInt(value);
+            } else if (key.equals("interval")) {
+                interval = Integer.parseInt(value);
+            } else if (key.equals("top")) {
+                top = Integer.parseInt(value);
+            } else if (key.equals("out")) {
+                out = value;
+            } else {
+                throw new IllegalArgumentException("Unknown agent option: " + key);
+            }
+        }
+        if (packages == null) {
+            throw new IllegalArgumentException("Should have the packages to instrument: alloc=com.acme.+org.example.");
+        }
+        if (sampling < 1) {
+            throw new IllegalArgumentException("Sampling interval should be positive: " + sampling);
+        }
+        if (interval < 0) {
+            throw new IllegalArgumentException("Dump interval should be non-negative: " + interval);
+        }
+
+        PrintStream pw;
+        if (out != null) {
+            try {
+                pw = new PrintStream(new FileOutputStream(out, true), true);
+            } catch (FileNotFoundException e) {
+                throw new IllegalArgumentException("Cannot open the output file: " + out, e);
+            }
+        } else {
+            pw = System.err;
+        }
+
+        AllocationRecorder.setSampling(sampling);
+        inst.addTransformer(new AllocationTransformer(packages));
+
+        Dumper dumper = new Dumper(pw, top);
+        if (interval > 0) {
+            Thread t = new Thread(new Periodic(dumper, interval * 1000L), "allocation-histogram");
+            t.setDaemon(true);
+            t.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Periodic(dumper, 0), "allocation-histogram-final"));
+    }
+
+    private static class Dumper {
+        private final PrintStream pw;
+        private final int top;
+        private final long start = System.nanoTime();
+        private long lastTime = start;
+        private long lastBytes;
+
+        Dumper(PrintStream pw, int top) {
+            this.pw = pw;
+            this.top = top;
+        }
+
+        synchronized void dump() {
+            long time = System.nanoTime();
+            long bytes = AllocationRecorder.getTotalBytes();
+            double rate = (bytes - lastBytes) * 1e9 / Math.max(1, time - lastTime) / (1024 * 1024);
+            lastTime = time;
+            lastBytes = bytes;
+
+            pw.printf("Allocation histogram at %.1f s, %.1f MB/s since the last one\n", (time - start) / 1e9, rate);
+            AllocationRecorder.printHistogram(pw, top);
+            pw.flush();
+        }
+    }
+
+    /**
+     * Dumps every period, or once if the period is 0.
+     */
+    private static class Periodic implements Runnable {
+        private final Dumper dumper;
+        private final long period;
+
+        Periodic(Dumper dumper, long period) {
+            this.dumper = dumper;
+            this.period = period;
+        }
+
+        @Override
+        public void run() {
+            if (period == 0) {
+                dumper.dump();
+                return;
+            }
+            while (true) {
+                try {
+                    Thread.sleep(period);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                dumper.dump();
+            }
+        }
+    }
+
+}
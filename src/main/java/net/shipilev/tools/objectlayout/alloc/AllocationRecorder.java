@@ -0,0 +1,298 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.alloc;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the allocations from the instrumented code, see {@link AllocationTransformer}.
+ * The instrumented code calls {@link #recordNew(int)} right after every NEW instruction,
+ * and {@link #recordArray(int, int)} right before every array allocation, with the site
+ * registered when the class was instrumented.
+ * <p>
+ * Only one allocation in {@link #getSampling()}, on average, is recorded. The intervals
+ * between the samples are random, so that the allocation patterns do not resonate with
+ * them, and every sample is counted with the weight of its interval. The common path is
+ * the countdown in the plain int array, striped over the threads; the countdowns are
+ * updated without synchronization, the rare lost update only shifts the next sample.
+ * The sampled bytes come from the layout model, see {@link AllocationSite}.
+ */
+public class AllocationRecorder {
+
+    private static final int STRIPES = stripes();
+
+    // ints per stripe: the countdown, the random state, the weight, and the padding up to the cache line
+    private static final int SAMPLER_STRIDE = 16;
+
+    private static final int[] SAMPLERS = new int[STRIPES * SAMPLER_STRIDE];
+
+    private static volatile int sampling;
+    private static volatile AllocationSite[] sites = new AllocationSite[64];
+    private static int siteCount;
+
+    private AllocationRecorder() {
+        // prevent instantiation
+    }
+
+    private static int stripes() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 2 && n < 64) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * @param interval record one allocation in this many, on average; 1 records all of them,
+     *                 and 0 stops the recording
+     */
+    public static synchronized void setSampling(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Sampling interval should be non-negative: " + interval);
+        }
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int idx = stripe * SAMPLER_STRIDE;
+            SAMPLERS[idx + 1] = (stripe + 1) * 0x9E3779B9;
+            int next = (interval > 1) ? nextInterval(idx, interval) : 1;
+            SAMPLERS[idx] = next;
+            SAMPLERS[idx + 2] = next;
+        }
+        sampling = interval;
+    }
+
+    public static int getSampling() {
+        return sampling;
+    }
+
+    /**
+     * @param className allocated class name, in the Class.getName() form
+     * @param location allocating method and line
+     * @param loader class loader of the allocating class, which also sees the allocated one
+     * @return site id for {@link #recordNew(int)}
+     */
+    public static int registerInstance(String className, String location, ClassLoader loader) {
+        return register(new AllocationSite(className, location, -1, loader, STRIPES));
+    }
+
+    /**
+     * @param className allocated array class name, in the Class.getName() form
+     * @param elementSize array element size
+     * @param location allocating method and line
+     * @return site id for {@link #recordArray(int, int)}
+     */
+    public static int registerArray(String className, int elementSize, String location) {
+        return register(new AllocationSite(className, location, elementSize, null, STRIPES));
+    }
+
+    private static synchronized int register(AllocationSite site) {
+        AllocationSite[] s = sites;
+        if (siteCount == s.length) {
+            s = Arrays.copyOf(s, s.length * 2);
+        }
+        s[siteCount] = site;
+        sites = s;
+        return siteCount++;
+    }
+
+    /**
+     * Drops the sites registered for the class which failed to instrument. Their slots stay
+     * empty, so that the ids of the sites registered concurrently do not change; the empty
+     * slots at the end are reused.
+     */
+    static synchronized void unregister(List<Integer> ids) {
+        AllocationSite[] s = sites;
+        for (int id : ids) {
+            s[id] = null;
+        }
+        while (siteCount > 0 && s[siteCount - 1] == null) {
+            siteCount--;
+        }
+    }
+
+    /**
+     * Called by the instrumented code after the NEW instruction.
+     */
+    public static void recordNew(int site) {
+        int stripe = stripe();
+        int weight = sample(stripe);
+        if (weight > 0) {
+            sites[site].recordInstance(stripe, weight);
+        }
+    }
+
+    /**
+     * Called by the instrumented code before the array allocation.
+     */
+    public static void recordArray(int length, int site) {
+        int stripe = stripe();
+        int weight = sample(stripe);
+        if (weight > 0) {
+            sites[site].recordArray(stripe, weight, length);
+        }
+    }
+
+    private static int stripe() {
+        // thread ids are sequential, and unlike the identity hash code, always cheap to get
+        long id = Thread.currentThread().getId();
+        int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return h & (STRIPES - 1);
+    }
+
+    /**
+     * @return the weight of the sample, or 0 if this allocation is not sampled
+     */
+    private static int sample(int stripe) {
+        int s = sampling;
+        if (s <= 1) return s;
+
+        int idx = stripe * SAMPLER_STRIDE;
+        if (--SAMPLERS[idx] > 0) return 0;
+
+        int weight = SAMPLERS[idx + 2];
+        int next = nextInterval(idx, s);
+        SAMPLERS[idx] = next;
+        SAMPLERS[idx + 2] = next;
+        return weight;
+    }
+
+    /**
+     * @return random interval in [1, 2 * mean - 1]
+     */
+    private static int nextInterval(int idx, int mean) {
+        int x = SAMPLERS[idx + 1];
+        if (x == 0) x = 1;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        SAMPLERS[idx + 1] = x;
+        return 1 + (x >>> 1) % (2 * mean - 1);
+    }
+
+    /**
+     * @return all the registered sites
+     */
+    public static List<AllocationSite> getSites() {
+        AllocationSite[] s;
+        int count;
+        synchronized (AllocationRecorder.class) {
+            s = sites;
+            count = siteCount;
+        }
+        List<AllocationSite> list = new ArrayList<AllocationSite>(count);
+        for (int c = 0; c < count; c++) {
+            if (s[c] != null) {
+                list.add(s[c]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return estimated bytes allocated so far, at all sites
+     */
+    public static long getTotalBytes() {
+        long total = 0;
+        for (AllocationSite s : getSites()) {
+            total += s.getBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Prints the allocations so far, by class and by site, the most bytes first.
+     */
+    public static void printHistogram(PrintStream pw, int top) {
+        List<AllocationSite> list = new ArrayList<AllocationSite>();
+        Map<String, long[]> classes = new HashMap<String, long[]>();
+        long totalCount = 0;
+        long totalBytes = 0;
+        for (AllocationSite s : getSites()) {
+            long count = s.getCount();
+            if (count == 0) continue;
+            long bytes = s.getBytes();
+            list.add(s);
+
+            long[] c = classes.get(s.getClassName());
+            if (c == null) {
+                c = new long[2];
+                classes.put(s.getClassName(), c);
+            }
+            c[0] += count;
+            c[1] += bytes;
+            totalCount += count;
+            totalBytes += bytes;
+        }
+
+        List<Map.Entry<String, long[]>> byClass = new ArrayList<Map.Entry<String, long[]>>(classes.entrySet());
+        Collections.sort(byClass, new Comparator<Map.Entry<String, long[]>>() {
+            @Override
+            public int compare(Map.Entry<String, long[]> o1, Map.Entry<String, long[]> o2) {
+                long b1 = o1.getValue()[1];
+                long b2 = o2.getValue()[1];
+                return (b1 > b2) ? -1 : ((b1 == b2) ? 0 : 1);
+            }
+        });
+
+        final Map<AllocationSite, Long> bytes = new HashMap<AllocationSite, Long>();
+        for (AllocationSite s : list) {
+            bytes.put(s, s.getBytes());
+        }
+        Collections.sort(list, new Comparator<AllocationSite>() {
+            @Override
+            public int compare(AllocationSite o1, AllocationSite o2) {
+                long b1 = bytes.get(o1);
+                long b2 = bytes.get(o2);
+                return (b1 > b2) ? -1 : ((b1 == b2) ? 0 : 1);
+            }
+        });
+
+        int s = sampling;
+        pw.println("Allocated, by class" + ((s > 1) ? " (estimated, 1 in " + s + " sampled):" : ":"));
+        pw.printf(" %12s %14s %s\n", "count", "bytes", "description");
+        for (Map.Entry<String, long[]> e : byClass.subList(0, Math.min(top, byClass.size()))) {
+            pw.printf(" %12d %14d %s\n", e.getValue()[0], e.getValue()[1], e.getKey());
+        }
+        if (byClass.size() > top) {
+            pw.println(" " + (byClass.size() - top) + " more classes");
+        }
+        pw.printf(" %12d %14d %s\n", totalCount, totalBytes, "(total)");
+        pw.println();
+
+        pw.println("Allocated, by site:");
+        pw.printf(" %12s %14s %s\n", "count", "bytes", "description");
+        for (AllocationSite site : list.subList(0, Math.min(top, list.size()))) {
+            pw.printf(" %12d %14d %s at %s\n", site.getCount(), bytes.get(site), site.getClassName(), site.getLocation());
+        }
+        if (list.size() > top) {
+            pw.println(" " + (list.size() - top) + " more sites");
+        }
+        pw.println();
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.alloc;
+
+import net.shipilev.tools.objectlayout.ClassLayout;
+import net.shipilev.tools.objectlayout.VMSupport;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The allocation instruction in the instrumented code, with the sampled counts and bytes.
+ * The counters are striped over the threads, every stripe on its own cache line, so that
+ * the threads allocating at the same site do not contend on the updates. The stripes are
+ * only allocated with the first sample, as most of the instrumented sites never get one.
+ */
+public class AllocationSite {
+
+    // longs per stripe: the count, the bytes, and the padding up to the cache line
+    private static final int STRIDE = 8;
+
+    private final String className;
+    private final String location;
+
+    // array element size, or -1 for the instances
+    private final int elementSize;
+
+    // instance size is only known once the class is loaded, resolved on the first sample
+    private final WeakReference<ClassLoader> loader;
+    private volatile long instanceSize = -1;
+
+    private final int stripes;
+    private volatile AtomicLongArray cells;
+
+    AllocationSite(String className, String location, int elementSize, ClassLoader loader, int stripes) {
+        this.className = className;
+        this.location = location;
+        this.elementSize = elementSize;
+        this.loader = new WeakReference<ClassLoader>(loader);
+        this.stripes = stripes;
+    }
+
+    private AtomicLongArray cells() {
+        AtomicLongArray c = cells;
+        if (c == null) {
+            synchronized (this) {
+                c = cells;
+                if (c == null) {
+                    c = new AtomicLongArray(stripes * STRIDE);
+                    cells = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    void recordInstance(int stripe, long weight) {
+        long size = instanceSize;
+        if (size < 0) {
+            size = resolveInstanceSize();
+        }
+        AtomicLongArray c = cells();
+        int idx = stripe * STRIDE;
+        c.addAndGet(idx, weight);
+        c.addAndGet(idx + 1, weight * size);
+    }
+
+    void recordArray(int stripe, long weight, int length) {
+        if (length < 0) {
+            // the allocation itself throws
+            return;
+        }
+        AtomicLongArray c = cells();
+        int idx = stripe * STRIDE;
+        c.addAndGet(idx, weight);
+        c.addAndGet(idx + 1, weight * VMSupport.LAYOUT.arraySize(elementSize, length));
+    }
+
+    private long resolveInstanceSize() {
+        long size;
+        try {
+            ClassLoader cl = loader.get();
+            Class<?> klass = Class.forName(className, false, cl);
+            size = ClassLayout.of(klass).getInstanceSize();
+        } catch (ClassNotFoundException e) {
+            size = 0;
+        } catch (LinkageError e) {
+            size = 0;
+        }
+        instanceSize = size;
+        return size;
+    }
+
+    /**
+     * @return allocated class name, in the Class.getName() form
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return allocating method and line, as in the stack traces
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    public boolean isArray() {
+        return elementSize >= 0;
+    }
+
+    /**
+     * @return estimated number of allocations so far
+     */
+    public long getCount() {
+        return sum(0);
+    }
+
+    /**
+     * @return estimated bytes allocated so far
+     */
+    public long getBytes() {
+        return sum(1);
+    }
+
+    private long sum(int offset) {
+        AtomicLongArray c = cells;
+        if (c == null) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = offset; i < c.length(); i += STRIDE) {
+            sum += c.get(i);
+        }
+        return sum;
+    }
+
+}
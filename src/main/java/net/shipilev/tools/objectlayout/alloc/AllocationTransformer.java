@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.alloc;
+
+import net.shipilev.tools.objectlayout.VMSupport;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Instruments the allocation sites in the classes of the selected packages, as they are loaded.
+ * Every NEW, NEWARRAY and ANEWARRAY instruction gets the call to {@link AllocationRecorder},
+ * with the site registered at the instrumentation time; the sites of the class which fails to
+ * instrument are dropped again. The multi-dimensional arrays are not instrumented. The classes
+ * of the bootstrap class loader, and of the class loaders which do not see the recorder, are
+ * left alone.
+ */
+public class AllocationTransformer implements ClassFileTransformer {
+
+    private static final String RECORDER = AllocationRecorder.class.getName().replace('.', '/');
+    private static final String OWN_PACKAGE = "net/shipilev/tools/objectlayout/";
+
+    private final String[] prefixes;
+    private final Map<ClassLoader, Boolean> loaders = new WeakHashMap<ClassLoader, Boolean>();
+
+    /**
+     * @param packages package name prefixes to instrument, e.g. "com.acme."
+     */
+    public AllocationTransformer(String... packages) {
+        if (packages.length == 0) {
+            throw new IllegalArgumentException("Should have at least one package to instrument");
+        }
+        prefixes = new String[packages.length];
+        for (int c = 0; c < packages.length; c++) {
+            prefixes[c] = packages[c].replace('.', '/');
+        }
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (loader == null || className == null || classBeingRedefined != null) return null;
+        if (className.startsWith(OWN_PACKAGE) || !matches(className)) return null;
+        if (!seesRecorder(loader)) return null;
+
+        SiteClassVisitor cv = null;
+        try {
+            ClassReader cr = new ClassReader(classfileBuffer);
+            ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS);
+            cv = new SiteClassVisitor(cw, loader);
+            cr.accept(cv, 0);
+            return cv.instrumented ? cw.toByteArray() : null;
+        } catch (RuntimeException e) {
+            // leave the class as is, rather than break it, and forget the sites it would have had
+            if (cv != null) {
+                AllocationRecorder.unregister(cv.sites);
+            }
+            return null;
+        }
+    }
+
+    private boolean matches(String className) {
+        for (String p : prefixes) {
+            if (className.startsWith(p)) return true;
+        }
+        return false;
+    }
+
+    private boolean seesRecorder(ClassLoader loader) {
+        synchronized (loaders) {
+            Boolean sees = loaders.get(loader);
+            if (sees == null) {
+                try {
+                    sees = loader.loadClass(AllocationRecorder.class.getName()) == AllocationRecorder.class;
+                } catch (ClassNotFoundException e) {
+                    sees = false;
+                }
+                loaders.put(loader, sees);
+            }
+            return sees;
+        }
+    }
+
+    private static class SiteClassVisitor extends ClassVisitor {
+        private final ClassLoader loader;
+        private String owner;
+        private String source;
+        private boolean instrumented;
+        private final List<Integer> sites = new ArrayList<Integer>();
+
+        SiteClassVisitor(ClassVisitor cv, ClassLoader loader) {
+            super(Opcodes.ASM9, cv);
+            this.loader = loader;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            owner = name.replace('/', '.');
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public void visitSource(String source, String debug) {
+            this.source = source;
+            super.visitSource(source, debug);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (mv == null) return null;
+            return new SiteMethodVisitor(mv, this, name);
+        }
+
+        int register(int site) {
+            sites.add(site);
+            return site;
+        }
+    }
+
+    private static class SiteMethodVisitor extends MethodVisitor {
+        private final SiteClassVisitor cv;
+        private final String method;
+        private int line = -1;
+
+        SiteMethodVisitor(MethodVisitor mv, SiteClassVisitor cv, String method) {
+            super(Opcodes.ASM9, mv);
+            this.cv = cv;
+            this.method = method;
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+            super.visitLineNumber(line, start);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (opcode == Opcodes.NEW) {
+                super.visitTypeInsn(opcode, type);
+                push(cv.register(AllocationRecorder.registerInstance(type.replace('/', '.'), location(), cv.loader)));
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, RECORDER, "recordNew", "(I)V", false);
+                cv.instrumented = true;
+            } else if (opcode == Opcodes.ANEWARRAY) {
+                String name = type.startsWith("[") ? "[" + type.replace('/', '.') : "[L" + type.replace('/', '.') + ";";
+                recordArray(cv.register(AllocationRecorder.registerArray(name, VMSupport.LAYOUT.getReferenceSize(), location())));
+                super.visitTypeInsn(opcode, type);
+            } else {
+                super.visitTypeInsn(opcode, type);
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            if (opcode == Opcodes.NEWARRAY) {
+                String name;
+                int size;
+                switch (operand) {
+                    case Opcodes.T_BOOLEAN: name = "[Z"; size = 1; break;
+                    case Opcodes.T_BYTE:    name = "[B"; size = 1; break;
+                    case Opcodes.T_CHAR:    name = "[C"; size = 2; break;
+                    case Opcodes.T_SHORT:   name = "[S"; size = 2; break;
+                    case Opcodes.T_INT:     name = "[I"; size = 4; break;
+                    case Opcodes.T_FLOAT:   name = "[F"; size = 4; break;
+                    case Opcodes.T_LONG:    name = "[J"; size = 8; break;
+                    case Opcodes.T_DOUBLE:  name = "[D"; size = 8; break;
+                    default:
+                        throw new IllegalStateException("Unknown array type: " + operand);
+                }
+                recordArray(cv.register(AllocationRecorder.registerArray(name, size, location())));
+            }
+            super.visitIntInsn(opcode, operand);
+        }
+
+        /**
+         * Records the array length on top of the stack, leaving it in place.
+         */
+        private void recordArray(int site) {
+            super.visitInsn(Opcodes.DUP);
+            push(site);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, RECORDER, "recordArray", "(II)V", false);
+            cv.instrumented = true;
+        }
+
+        private void push(int value) {
+            if (value <= Byte.MAX_VALUE) {
+                super.visitIntInsn(Opcodes.BIPUSH, value);
+            } else if (value <= Short.MAX_VALUE) {
+                super.visitIntInsn(Opcodes.SIPUSH, value);
+            } else {
+                super.visitLdcInsn(value);
+            }
+        }
+
+        private String location() {
+            String src = (cv.source != null) ? cv.source : "Unknown Source";
+            return cv.owner + "." + method + "(" + src + ((line >= 0) ? ":" + line : "") + ")";
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the records written by {@link BinaryReportWriter}, and replays them into another writer.
+ */
+public class BinaryReportReader {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private String[] strings = new String[256];
+
+    public BinaryReportReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    public void replay(ReportWriter w) throws IOException {
+        byte[] magic = new byte[BinaryReportWriter.MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = (byte) getByte();
+        }
+        if (!Arrays.equals(magic, BinaryReportWriter.MAGIC)) {
+            throw new IOException("Not a binary report");
+        }
+        int version = getByte();
+        if (version != BinaryReportWriter.VERSION) {
+            throw new IOException("Unsupported binary report version: " + version);
+        }
+
+        int tag;
+        while ((tag = nextTag()) != -1) {
+            switch (tag) {
+                case BinaryReportWriter.STRING:
+                    readString();
+                    break;
+                case BinaryReportWriter.LAYOUT:
+                    w.layoutRow(string(), getVarint(), getVarint(), string(), string());
+                    break;
+                case BinaryReportWriter.INSTANCE:
+                    w.layoutEnd(string(), getVarint());
+                    break;
+                case BinaryReportWriter.HISTOGRAM:
+                    w.histogramRow(string(), string(), getVarint(), getVarint());
+                    break;
+                case BinaryReportWriter.TOTAL:
+                    w.histogramEnd(string(), getVarint(), getVarint());
+                    break;
+                case BinaryReportWriter.OBJECT:
+                    w.object(string(), getVarint(), (int) getVarint(), string());
+                    break;
+                case BinaryReportWriter.ERROR:
+                    w.error(string(), string());
+                    break;
+                default:
+                    throw new IOException("Unknown record: " + tag);
+            }
+        }
+    }
+
+    private void readString() throws IOException {
+        int id = (int) getVarint();
+        byte[] bytes = new byte[(int) getVarint()];
+        for (int off = 0; off < bytes.length; ) {
+            if (!buffer.hasRemaining() && !fill()) {
+                throw new EOFException();
+            }
+            int len = Math.min(buffer.remaining(), bytes.length - off);
+            buffer.get(bytes, off, len);
+            off += len;
+        }
+
+        if (id >= strings.length) {
+            strings = Arrays.copyOf(strings, Math.max(id + 1, strings.length * 2));
+        }
+        strings[id] = new String(bytes, BinaryReportWriter.UTF8);
+    }
+
+    private String string() throws IOException {
+        int id = (int) getVarint();
+        if (id == 0) return null;
+        if (id >= strings.length || strings[id] == null) {
+            throw new IOException("Undefined string: " + id);
+        }
+        return strings[id];
+    }
+
+    private int nextTag() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private int getByte() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            throw new EOFException();
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private long getVarint() throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = getByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        return read > 0;
+    }
+
+}
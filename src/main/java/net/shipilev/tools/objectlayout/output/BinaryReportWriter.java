@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary records, written through the fixed buffer into the channel as they come.
+ * <p>
+ * The stream starts with the "JOLR" magic and the version byte. Every record starts with
+ * the tag byte, followed by the unsigned LEB128 varints. Strings are written once, as the
+ * {@link #STRING} record with the id and the UTF-8 bytes, and referenced by the id later;
+ * id 0 is null. See {@link BinaryReportReader} for the decoder.
+ */
+public class BinaryReportWriter implements ReportWriter {
+
+    static final byte[] MAGIC = {'J', 'O', 'L', 'R'};
+    static final int VERSION = 1;
+
+    /** id, length, bytes */
+    static final int STRING = 0;
+    /** class, offset, size, type, description */
+    static final int LAYOUT = 1;
+    /** class, size */
+    static final int INSTANCE = 2;
+    /** root, class, count, size */
+    static final int HISTOGRAM = 3;
+    /** root, count, size */
+    static final int TOTAL = 4;
+    /** class, size, depth, field */
+    static final int OBJECT = 5;
+    /** class, message */
+    static final int ERROR = 6;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    public BinaryReportWriter(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+    }
+
+    @Override
+    public void layoutRow(String className, long offset, long size, String type, String description) throws IOException {
+        int classId = string(className);
+        int typeId = string(type);
+        int descId = string(description);
+        record(LAYOUT);
+        putVarint(classId);
+        putVarint(offset);
+        putVarint(size);
+        putVarint(typeId);
+        putVarint(descId);
+    }
+
+    @Override
+    public void layoutEnd(String className, long instanceSize) throws IOException {
+        int classId = string(className);
+        record(INSTANCE);
+        putVarint(classId);
+        putVarint(instanceSize);
+    }
+
+    @Override
+    public void histogramRow(String root, String className, long count, long size) throws IOException {
+        int rootId = string(root);
+        int classId = string(className);
+        record(HISTOGRAM);
+        putVarint(rootId);
+        putVarint(classId);
+        putVarint(count);
+        putVarint(size);
+    }
+
+    @Override
+    public void histogramEnd(String root, long count, long size) throws IOException {
+        int rootId = string(root);
+        record(TOTAL);
+        putVarint(rootId);
+        putVarint(count);
+        putVarint(size);
+    }
+
+    @Override
+    public void object(String className, long size, int depth, String parentField) throws IOException {
+        int classId = string(className);
+        int fieldId = string(parentField);
+        record(OBJECT);
+        putVarint(classId);
+        putVarint(size);
+        putVarint(depth);
+        putVarint(fieldId);
+    }
+
+    @Override
+    public void error(String className, String message) throws IOException {
+        int classId = string(className);
+        int messageId = string(message);
+        record(ERROR);
+        putVarint(classId);
+        putVarint(messageId);
+    }
+
+    private int string(String s) throws IOException {
+        if (s == null) return 0;
+
+        Integer id = strings.get(s);
+        if (id != null) return id;
+
+        id = strings.size() + 1;
+        strings.put(s, id);
+
+        byte[] bytes = s.getBytes(UTF8);
+        record(STRING);
+        putVarint(id);
+        putVarint(bytes.length);
+        for (int off = 0; off < bytes.length; ) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int len = Math.min(buffer.remaining(), bytes.length - off);
+            buffer.put(bytes, off, len);
+            off += len;
+        }
+        return id;
+    }
+
+    private void record(int tag) throws IOException {
+        // the tag and up to five varints always fit
+        if (buffer.remaining() < 64) {
+            drain();
+        }
+        buffer.put((byte) tag);
+    }
+
+    private void putVarint(long v) {
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+}
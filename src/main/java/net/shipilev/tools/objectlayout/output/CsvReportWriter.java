@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * CSV rows. All the record types share one header, the union of their columns,
+ * so that the mixed streams load as one table; the first column is the record type,
+ * and the columns the record type does not have are left empty.
+ */
+public class CsvReportWriter implements ReportWriter {
+
+    private static final String[] COLUMNS = {
+            "record", "root", "class", "offset", "size", "type", "description", "count", "depth", "field", "message"
+    };
+    private static final int RECORD = 0;
+    private static final int ROOT = 1;
+    private static final int CLASS = 2;
+    private static final int OFFSET = 3;
+    private static final int SIZE = 4;
+    private static final int TYPE = 5;
+    private static final int DESCRIPTION = 6;
+    private static final int COUNT = 7;
+    private static final int DEPTH = 8;
+    private static final int FIELD = 9;
+    private static final int MESSAGE = 10;
+
+    private final PrintStream pw;
+    private final String[] cells = new String[COLUMNS.length];
+    private final StringBuilder sb = new StringBuilder();
+    private boolean headerWritten;
+
+    public CsvReportWriter(PrintStream pw) {
+        this.pw = pw;
+    }
+
+    @Override
+    public void layoutRow(String className, long offset, long size, String type, String description) {
+        begin("layout");
+        cells[CLASS] = className;
+        cells[OFFSET] = String.valueOf(offset);
+        cells[SIZE] = String.valueOf(size);
+        cells[TYPE] = type;
+        cells[DESCRIPTION] = description;
+        end();
+    }
+
+    @Override
+    public void layoutEnd(String className, long instanceSize) {
+        begin("instance");
+        cells[CLASS] = className;
+        cells[SIZE] = String.valueOf(instanceSize);
+        end();
+    }
+
+    @Override
+    public void histogramRow(String root, String className, long count, long size) {
+        begin("histogram");
+        cells[ROOT] = root;
+        cells[CLASS] = className;
+        cells[COUNT] = String.valueOf(count);
+        cells[SIZE] = String.valueOf(size);
+        end();
+    }
+
+    @Override
+    public void histogramEnd(String root, long count, long size) {
+        begin("total");
+        cells[ROOT] = root;
+        cells[COUNT] = String.valueOf(count);
+        cells[SIZE] = String.valueOf(size);
+        end();
+    }
+
+    @Override
+    public void object(String className, long size, int depth, String parentField) {
+        begin("object");
+        cells[CLASS] = className;
+        cells[SIZE] = String.valueOf(size);
+        cells[DEPTH] = String.valueOf(depth);
+        cells[FIELD] = parentField;
+        end();
+    }
+
+    @Override
+    public void error(String className, String message) {
+        begin("error");
+        cells[CLASS] = className;
+        cells[MESSAGE] = message;
+        end();
+    }
+
+    private void begin(String record) {
+        if (!headerWritten) {
+            headerWritten = true;
+            sb.setLength(0);
+            for (String c : COLUMNS) {
+                sb.append(sb.length() > 0 ? "," : "").append(c);
+            }
+            pw.println(sb);
+        }
+        Arrays.fill(cells, null);
+        cells[RECORD] = record;
+    }
+
+    private void end() {
+        sb.setLength(0);
+        for (int c = 0; c < cells.length; c++) {
+            if (c > 0) {
+                sb.append(',');
+            }
+            value(cells[c]);
+        }
+        pw.println(sb);
+    }
+
+    private void value(String s) {
+        if (s == null) {
+            return;
+        }
+        if (s.indexOf(',') == -1 && s.indexOf('"') == -1 && s.indexOf('\n') == -1 && s.indexOf('\r') == -1) {
+            sb.append(s);
+            return;
+        }
+        sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+    }
+
+    @Override
+    public void flush() {
+        pw.flush();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.PrintStream;
+
+/**
+ * JSON Lines: one JSON object per record, the record type is in the "record" field.
+ */
+public class JsonReportWriter implements ReportWriter {
+
+    private final PrintStream pw;
+    private final StringBuilder sb = new StringBuilder();
+
+    public JsonReportWriter(PrintStream pw) {
+        this.pw = pw;
+    }
+
+    @Override
+    public void layoutRow(String className, long offset, long size, String type, String description) {
+        start("layout");
+        field("class", className);
+        field("offset", offset);
+        field("size", size);
+        field("type", type);
+        field("description", description);
+        end();
+    }
+
+    @Override
+    public void layoutEnd(String className, long instanceSize) {
+        start("instance");
+        field("class", className);
+        field("size", instanceSize);
+        end();
+    }
+
+    @Override
+    public void histogramRow(String root, String className, long count, long size) {
+        start("histogram");
+        field("root", root);
+        field("class", className);
+        field("count", count);
+        field("size", size);
+        end();
+    }
+
+    @Override
+    public void histogramEnd(String root, long count, long size) {
+        start("total");
+        field("root", root);
+        field("count", count);
+        field("size", size);
+        end();
+    }
+
+    @Override
+    public void object(String className, long size, int depth, String parentField) {
+        start("object");
+        field("class", className);
+        field("size", size);
+        field("depth", depth);
+        field("field", parentField);
+        end();
+    }
+
+    @Override
+    public void error(String className, String message) {
+        start("error");
+        field("class", className);
+        field("message", message);
+        end();
+    }
+
+    private void start(String record) {
+        sb.setLength(0);
+        sb.append("{\"record\":");
+        quote(record);
+    }
+
+    private void field(String name, long value) {
+        sb.append(",\"").append(name).append("\":").append(value);
+    }
+
+    private void field(String name, String value) {
+        sb.append(",\"").append(name).append("\":");
+        if (value == null) {
+            sb.append("null");
+        } else {
+            quote(value);
+        }
+    }
+
+    private void quote(String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n");  break;
+                case '\r': sb.append("\\r");  break;
+                case '\t': sb.append("\\t");  break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void end() {
+        sb.append('}');
+        pw.println(sb);
+    }
+
+    @Override
+    public void flush() {
+        pw.flush();
+    }
+
+}
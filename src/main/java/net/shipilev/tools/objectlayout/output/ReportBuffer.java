@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the records in memory, to be replayed into another writer later.
+ * This lets concurrent tasks produce the parts of one report.
+ */
+public class ReportBuffer implements ReportWriter {
+
+    private static final int LAYOUT = 0;
+    private static final int INSTANCE = 1;
+    private static final int HISTOGRAM = 2;
+    private static final int TOTAL = 3;
+    private static final int OBJECT = 4;
+    private static final int ERROR = 5;
+
+    private final List<Object[]> records = new ArrayList<Object[]>();
+
+    @Override
+    public void layoutRow(String className, long offset, long size, String type, String description) {
+        records.add(new Object[]{LAYOUT, className, offset, size, type, description});
+    }
+
+    @Override
+    public void layoutEnd(String className, long instanceSize) {
+        records.add(new Object[]{INSTANCE, className, instanceSize});
+    }
+
+    @Override
+    public void histogramRow(String root, String className, long count, long size) {
+        records.add(new Object[]{HISTOGRAM, root, className, count, size});
+    }
+
+    @Override
+    public void histogramEnd(String root, long count, long size) {
+        records.add(new Object[]{TOTAL, root, count, size});
+    }
+
+    @Override
+    public void object(String className, long size, int depth, String parentField) {
+        records.add(new Object[]{OBJECT, className, size, depth, parentField});
+    }
+
+    @Override
+    public void error(String className, String message) {
+        records.add(new Object[]{ERROR, className, message});
+    }
+
+    public void replay(ReportWriter w) throws IOException {
+        for (Object[] r : records) {
+            switch ((Integer) r[0]) {
+                case LAYOUT:
+                    w.layoutRow((String) r[1], (Long) r[2], (Long) r[3], (String) r[4], (String) r[5]);
+                    break;
+                case INSTANCE:
+                    w.layoutEnd((String) r[1], (Long) r[2]);
+                    break;
+                case HISTOGRAM:
+                    w.histogramRow((String) r[1], (String) r[2], (Long) r[3], (Long) r[4]);
+                    break;
+                case TOTAL:
+                    w.histogramEnd((String) r[1], (Long) r[2], (Long) r[3]);
+                    break;
+                case OBJECT:
+                    w.object((String) r[1], (Long) r[2], (Integer) r[3], (String) r[4]);
+                    break;
+                case ERROR:
+                    w.error((String) r[1], (String) r[2]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record: " + r[0]);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Output formats of the reports.
+ */
+public enum ReportFormat {
+    TEXT,
+    JSON,
+    CSV,
+    BINARY;
+
+    public static ReportFormat parse(String name) {
+        for (ReportFormat f : values()) {
+            if (f.name().equalsIgnoreCase(name)) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format: " + name + ", should be one of " + Arrays.toString(values()));
+    }
+
+    public ReportWriter open(PrintStream out) throws IOException {
+        switch (this) {
+            case TEXT:
+                return new TextReportWriter(out);
+            case JSON:
+                return new JsonReportWriter(out);
+            case CSV:
+                return new CsvReportWriter(out);
+            case BINARY:
+                return new BinaryReportWriter(Channels.newChannel(out));
+            default:
+                throw new IllegalStateException("Unknown format: " + this);
+        }
+    }
+
+    /**
+     * Opens the writer over the standard output. The binary records go directly into
+     * the file channel, bypassing System.out.
+     */
+    public ReportWriter openStandardOutput() throws IOException {
+        if (this == BINARY) {
+            return new BinaryReportWriter(new FileOutputStream(FileDescriptor.out).getChannel());
+        }
+        return open(System.out);
+    }
+
+    public boolean isText() {
+        return this == TEXT;
+    }
+
+}
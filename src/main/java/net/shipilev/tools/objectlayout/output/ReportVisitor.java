@@ -0,0 +1,56 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import net.shipilev.tools.objectlayout.ObjectVisitor;
+
+import java.io.IOException;
+
+/**
+ * Streams every discovered object into the writer. Stops the walk on the first
+ * write failure, see {@link #getFailure()}.
+ */
+public class ReportVisitor implements ObjectVisitor {
+
+    private final ReportWriter writer;
+    private IOException failure;
+
+    public ReportVisitor(ReportWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public Action onObject(Object obj, Class<?> klass, long size, int depth, String parentField) {
+        try {
+            writer.object(klass.getName(), size, depth, parentField);
+            return Action.CONTINUE;
+        } catch (IOException e) {
+            failure = e;
+            return Action.STOP;
+        }
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+
+}
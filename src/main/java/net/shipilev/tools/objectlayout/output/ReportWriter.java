@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Receives the analysis results as the stream of records. The writers render the
+ * records as they come, and do not accumulate them, except for the text writer,
+ * which holds one class layout to align its columns. Writers do not own the
+ * underlying stream: {@link #flush()} it when done, and close the stream separately.
+ */
+public interface ReportWriter extends Flushable {
+
+    /**
+     * Field or gap in the class layout.
+     *
+     * @param className class name
+     * @param offset offset in the object
+     * @param size size in bytes
+     * @param type field type, empty for gaps and headers
+     * @param description field name, or the gap description
+     */
+    void layoutRow(String className, long offset, long size, String type, String description) throws IOException;
+
+    /**
+     * Ends the class layout.
+     *
+     * @param className class name
+     * @param instanceSize instance size, with alignment
+     */
+    void layoutEnd(String className, long instanceSize) throws IOException;
+
+    /**
+     * Class in the object graph histogram.
+     *
+     * @param root name of the root, or null if there is none
+     * @param className class name
+     * @param count number of instances
+     * @param size total size of instances
+     */
+    void histogramRow(String root, String className, long count, long size) throws IOException;
+
+    /**
+     * Ends the histogram.
+     *
+     * @param root name of the root, or null if there is none
+     * @param count total number of instances
+     * @param size total size of instances
+     */
+    void histogramEnd(String root, long count, long size) throws IOException;
+
+    /**
+     * Object discovered by the walk, see {@link net.shipilev.tools.objectlayout.ObjectVisitor}.
+     *
+     * @param className class name
+     * @param size object size
+     * @param depth depth in the walk tree
+     * @param parentField field the object was discovered through, null for the roots
+     */
+    void object(String className, long size, int depth, String parentField) throws IOException;
+
+    /**
+     * Class failed to analyze.
+     *
+     * @param className class name
+     * @param message failure description
+     */
+    void error(String className, String message) throws IOException;
+
+}
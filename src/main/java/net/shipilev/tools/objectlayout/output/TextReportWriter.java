@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.output;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Human-readable tables.
+ */
+public class TextReportWriter implements ReportWriter {
+
+    private final PrintStream pw;
+    private final List<Object[]> layoutRows = new ArrayList<Object[]>();
+    private boolean histogramStarted;
+    private boolean printed;
+
+    public TextReportWriter(PrintStream pw) {
+        this.pw = pw;
+    }
+
+    @Override
+    public void layoutRow(String className, long offset, long size, String type, String description) {
+        layoutRows.add(new Object[]{offset, size, type, description});
+    }
+
+    @Override
+    public void layoutEnd(String className, long instanceSize) {
+        int maxLength = 1;
+        for (Object[] row : layoutRows) {
+            maxLength = Math.max(((String) row[2]).length(), maxLength);
+        }
+
+        separate();
+        pw.println(canonicalName(className));
+        pw.printf(" %6s %5s %" + maxLength + "s %s\n", "offset", "size", "type", "description");
+        for (Object[] row : layoutRows) {
+            pw.printf(" %6d %5d %" + maxLength + "s %s\n", row[0], row[1], row[2], row[3]);
+        }
+        pw.printf(" %6d %5s %" + maxLength + "s %s\n", instanceSize, "", "", "(object boundary, size estimate)");
+
+        layoutRows.clear();
+    }
+
+    @Override
+    public void histogramRow(String root, String className, long count, long size) {
+        startHistogram(root);
+        pw.printf(" %5d %5d %5d %s\n", count, size, size / count, className);
+    }
+
+    @Override
+    public void histogramEnd(String root, long count, long size) {
+        startHistogram(root);
+        pw.printf(" %5d %5d %5s %s\n", count, size, "", "(total)");
+        histogramStarted = false;
+    }
+
+    private void startHistogram(String root) {
+        if (histogramStarted) return;
+        histogramStarted = true;
+
+        if (root != null) {
+            separate();
+            pw.println(root + " instance:");
+        }
+        pw.printf(" %5s %5s %5s %s\n", "count", "size", "avg", "description");
+    }
+
+    @Override
+    public void object(String className, long size, int depth, String parentField) {
+        pw.printf(" %5d %5d %s%s\n", depth, size, className, (parentField != null) ? " (" + parentField + ")" : "");
+    }
+
+    @Override
+    public void error(String className, String message) {
+        separate();
+        pw.println(className + ": " + message);
+    }
+
+    /**
+     * Turns the binary class name back into the canonical one, as the layouts were
+     * always printed: "java.util.Map.Entry", "java.lang.String[]". The classes without
+     * the canonical name, e.g. anonymous "Foo$1", keep the binary name.
+     */
+    static String canonicalName(String name) {
+        int dims = 0;
+        while (dims < name.length() && name.charAt(dims) == '[') {
+            dims++;
+        }
+
+        String element = name;
+        if (dims > 0) {
+            char type = name.charAt(dims);
+            switch (type) {
+                case 'Z': element = "boolean"; break;
+                case 'B': element = "byte";    break;
+                case 'C': element = "char";    break;
+                case 'S': element = "short";   break;
+                case 'I': element = "int";     break;
+                case 'F': element = "float";   break;
+                case 'J': element = "long";    break;
+                case 'D': element = "double";  break;
+                case 'L': element = name.substring(dims + 1, name.length() - 1); break;
+                default:
+                    return name;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(element.length() + dims * 2);
+        for (int i = 0; i < element.length(); i++) {
+            char c = element.charAt(i);
+            boolean nested = c == '$' && i + 1 < element.length() && !Character.isDigit(element.charAt(i + 1));
+            sb.append(nested ? '.' : c);
+        }
+        for (int d = 0; d < dims; d++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    private void separate() {
+        if (printed) {
+            pw.println();
+        }
+        printed = true;
+    }
+
+    @Override
+    public void flush() {
+        pw.flush();
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lazily computed per-class values, in the spirit of ClassValue.
+ * Lookups are lock-free and do not allocate; classes are weakly referenced,
+ * so the cache does not keep the class loaders alive. The computed values
+ * should not reference the class itself, otherwise the class is pinned.
+ */
+public abstract class ClassCache<V> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<Class<?>>();
+    private volatile AtomicReferenceArray<Entry<V>> table = new AtomicReferenceArray<Entry<V>>(INITIAL_CAPACITY);
+    private int size;
+
+    protected abstract V compute(Class<?> klass);
+
+    public V get(Class<?> klass) {
+        AtomicReferenceArray<Entry<V>> t = table;
+        int hash = hash(klass);
+        for (Entry<V> e = t.get(hash & (t.length() - 1)); e != null; e = e.next) {
+            if (e.get() == klass) {
+                return e.value;
+            }
+        }
+        return put(klass, compute(klass));
+    }
+
+    private synchronized V put(Class<?> klass, V value) {
+        expungeStale();
+
+        AtomicReferenceArray<Entry<V>> t = table;
+        int hash = hash(klass);
+        int idx = hash & (t.length() - 1);
+        for (Entry<V> e = t.get(idx); e != null; e = e.next) {
+            if (e.get() == klass) {
+                return e.value;
+            }
+        }
+
+        t.set(idx, new Entry<V>(klass, hash, value, t.get(idx), queue));
+        if (++size > t.length() * 3 / 4) {
+            resize(t.length() * 2);
+        }
+        return value;
+    }
+
+    private void expungeStale() {
+        boolean stale = false;
+        while (queue.poll() != null) {
+            stale = true;
+        }
+        if (stale) {
+            resize(table.length());
+        }
+    }
+
+    private void resize(int capacity) {
+        AtomicReferenceArray<Entry<V>> oldTable = table;
+        AtomicReferenceArray<Entry<V>> newTable = new AtomicReferenceArray<Entry<V>>(capacity);
+        int newSize = 0;
+        for (int i = 0; i < oldTable.length(); i++) {
+            for (Entry<V> e = oldTable.get(i); e != null; e = e.next) {
+                Class<?> klass = e.get();
+                if (klass != null) {
+                    int idx = e.hash & (capacity - 1);
+                    newTable.set(idx, new Entry<V>(klass, e.hash, e.value, newTable.get(idx), queue));
+                    newSize++;
+                }
+            }
+        }
+        size = newSize;
+        table = newTable;
+    }
+
+    private static int hash(Class<?> klass) {
+        int h = System.identityHashCode(klass);
+        return h ^ (h >>> 16);
+    }
+
+    private static class Entry<V> extends WeakReference<Class<?>> {
+        private final int hash;
+        private final V value;
+        private final Entry<V> next;
+
+        Entry(Class<?> klass, int hash, V value, Entry<V> next, ReferenceQueue<Class<?>> queue) {
+            super(klass, queue);
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+}
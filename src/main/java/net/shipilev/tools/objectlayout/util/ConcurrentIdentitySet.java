@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Identity set striped over a number of independently locked IdentityHashMaps.
+ */
+public class ConcurrentIdentitySet {
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public ConcurrentIdentitySet(int concurrency) {
+        int n = 1;
+        while (n < concurrency * 16) {
+            n <<= 1;
+        }
+
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = n - 1;
+    }
+
+    public boolean add(Object o) {
+        int h = System.identityHashCode(o);
+        Stripe stripe = stripes[(h ^ (h >>> 16)) & mask];
+        synchronized (stripe) {
+            return stripe.put(o, Boolean.TRUE) == null;
+        }
+    }
+
+    // non-generic, so that the stripes array needs no unchecked conversion
+    private static class Stripe extends IdentityHashMap<Object, Boolean> {
+        private static final long serialVersionUID = 1L;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+/**
+ * Maps objects by identity to non-negative ints. Open addressing over plain arrays,
+ * so that the entries are not separate objects: with compressed references, that is
+ * 8 bytes per slot, and the table is kept at most half full.
+ */
+public class IdentityIntMap {
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+
+    public IdentityIntMap() {
+        this(1024);
+    }
+
+    public IdentityIntMap(int capacity) {
+        int n = 16;
+        while (n < capacity * 2) {
+            n <<= 1;
+        }
+        keys = new Object[n];
+        values = new int[n];
+    }
+
+    /**
+     * @return value for the key, or -1 if there is none
+     */
+    public int get(Object key) {
+        int idx = indexOf(keys, key);
+        return (keys[idx] == null) ? -1 : values[idx];
+    }
+
+    public void put(Object key, int value) {
+        int idx = indexOf(keys, key);
+        if (keys[idx] == null) {
+            keys[idx] = key;
+            if (++size > keys.length / 2) {
+                values[idx] = value;
+                grow();
+                return;
+            }
+        }
+        values[idx] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int indexOf(Object[] keys, Object key) {
+        int mask = keys.length - 1;
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        int idx = (h ^ (h >>> 16)) & mask;
+        while (keys[idx] != null && keys[idx] != key) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int idx = indexOf(keys, oldKeys[i]);
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+/**
+ * Maps longs to non-negative ints, open addressing over plain arrays.
+ */
+public class LongIntMap {
+
+    private long[] keys;
+
+    // value + 1, zero marks the empty slot
+    private int[] values;
+    private int size;
+
+    public LongIntMap() {
+        keys = new long[64];
+        values = new int[64];
+    }
+
+    /**
+     * @return value for the key, or -1 if there is none
+     */
+    public int get(long key) {
+        return values[indexOf(keys, values, key)] - 1;
+    }
+
+    public void put(long key, int value) {
+        int idx = indexOf(keys, values, key);
+        boolean added = values[idx] == 0;
+        keys[idx] = key;
+        values[idx] = value + 1;
+        if (added && ++size > keys.length / 2) {
+            grow();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int indexOf(long[] keys, int[] values, long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int idx = (int) (h ^ (h >>> 32)) & mask;
+        while (values[idx] != 0 && keys[idx] != key) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int idx = indexOf(keys, values, oldKeys[i]);
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+
+}
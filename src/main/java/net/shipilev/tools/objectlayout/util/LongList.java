@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of longs.
+ */
+public class LongList {
+
+    private long[] elements;
+    private int size;
+
+    public LongList() {
+        this(16);
+    }
+
+    public LongList(int capacity) {
+        elements = new long[Math.max(1, capacity)];
+    }
+
+    public void add(long v) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(16, size * 2));
+        }
+        elements[size++] = v;
+    }
+
+    public long get(int index) {
+        return elements[index];
+    }
+
+    public void set(int index, long v) {
+        elements[index] = v;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void trim() {
+        elements = Arrays.copyOf(elements, size);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Array of ints or longs mapped from the file. The single mapping cannot go over 2 GB,
+ * so the large columns are mapped in chunks.
+ */
+public class MappedColumn {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final int scaleShift;
+
+    /**
+     * @param channel file to map
+     * @param offset column start in the file
+     * @param count number of elements
+     * @param elementSize element size, 4 or 8
+     */
+    public MappedColumn(FileChannel channel, long offset, long count, int elementSize) throws IOException {
+        if (elementSize != 4 && elementSize != 8) {
+            throw new IllegalArgumentException("Element size should be 4 or 8: " + elementSize);
+        }
+        scaleShift = (elementSize == 4) ? 2 : 3;
+
+        long length = count << scaleShift;
+        int chunkCount = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+        chunks = new MappedByteBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long start = (long) c << CHUNK_SHIFT;
+            long size = Math.min(length - start, 1L << CHUNK_SHIFT);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, size);
+        }
+    }
+
+    public int getInt(long index) {
+        long pos = index << 2;
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].getInt((int) (pos & CHUNK_MASK));
+    }
+
+    public long getLong(long index) {
+        long pos = index << 3;
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+}
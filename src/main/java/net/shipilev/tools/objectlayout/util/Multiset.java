@@ -21,33 +21,90 @@
  */
 package net.shipilev.tools.objectlayout.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
+/**
+ * Counts the keys with long counters. The keys and the counters are kept in the
+ * open-addressing table of plain arrays, so that incrementing does not box anything.
+ */
 public class Multiset<T> {
 
-    private final Map<T, Integer> map = new HashMap<T, Integer>();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private int size;
 
     public void add(T t) {
         add(t, 1);
     }
 
-    public void add(T key, int count) {
-        Integer v = map.get(key);
-        if (v == null) {
-            v = 0;
+    public void add(T key, long count) {
+        int idx = indexOf(keys, key);
+        if (keys[idx] == null) {
+            keys[idx] = key;
+            if (++size > keys.length / 2) {
+                grow();
+                idx = indexOf(keys, key);
+            }
+        }
+        counts[idx] += count;
+    }
+
+    public long count(T key) {
+        int idx = indexOf(keys, key);
+        return (keys[idx] == null) ? 0 : counts[idx];
+    }
+
+    public void merge(Multiset<T> other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != null) {
+                @SuppressWarnings("unchecked")
+                T key = (T) other.keys[i];
+                add(key, other.counts[i]);
+            }
         }
-        v += count;
-        map.put(key, v);
     }
 
-    public int count(T key) {
-        Integer v = map.get(key);
-        return (v == null) ? 0 : v;
+    public int size() {
+        return size;
     }
 
     public Collection<T> keys() {
-        return map.keySet();
+        List<T> result = new ArrayList<T>(size);
+        for (Object k : keys) {
+            if (k != null) {
+                @SuppressWarnings("unchecked")
+                T key = (T) k;
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    private static int indexOf(Object[] keys, Object key) {
+        int mask = keys.length - 1;
+        int h = key.hashCode() * 0x9E3779B9;
+        int idx = (h ^ (h >>> 16)) & mask;
+        while (keys[idx] != null && !keys[idx].equals(key)) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new Object[oldKeys.length * 2];
+        counts = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int idx = indexOf(keys, oldKeys[i]);
+                keys[idx] = oldKeys[i];
+                counts[idx] = oldCounts[i];
+            }
+        }
     }
 }
@@ -0,0 +1,279 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the Lengauer-Tarjan dominators against the textbook dataflow
+ * definition: dom(v) = {v} + intersection of dom(p) over the predecessors p.
+ */
+public class DominatorTreeTest extends TestCase {
+
+    public void testRandomGraphs() {
+        Random r = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            int nodes = 1 + r.nextInt(300);
+            int extraEdges = r.nextInt(nodes * 3 + 1);
+            check(new RandomGraph(r, nodes, extraEdges));
+        }
+    }
+
+    public void testLongChain() {
+        // doubly linked chain, the worst case for the iterative algorithms
+        int n = 200000;
+        int[][] succs = new int[n][];
+        for (int i = 0; i < n; i++) {
+            if (i == 0) {
+                succs[i] = new int[] { 1 };
+            } else if (i == n - 1) {
+                succs[i] = new int[] { i - 1 };
+            } else {
+                succs[i] = new int[] { i + 1, i - 1 };
+            }
+        }
+        DominatorTree tree = new DominatorTree(new RandomGraph(succs, 16));
+        for (int i = 1; i < n; i++) {
+            assertEquals(i - 1, tree.getImmediateDominator(i));
+            assertEquals(16L * (n - i), tree.getRetainedSize(i));
+        }
+    }
+
+    private static void check(RandomGraph g) {
+        int n = g.size();
+        BitSet[] dom = naiveDominators(g);
+        DominatorTree tree = new DominatorTree(g);
+
+        assertEquals(0, tree.getImmediateDominator(0));
+        for (int v = 0; v < n; v++) {
+            // idom is the strict dominator with the largest dominator set
+            if (v > 0) {
+                int idom = -1;
+                for (int d = dom[v].nextSetBit(0); d >= 0; d = dom[v].nextSetBit(d + 1)) {
+                    if (d != v && (idom < 0 || dom[d].cardinality() > dom[idom].cardinality())) {
+                        idom = d;
+                    }
+                }
+                assertEquals("idom of " + v, idom, tree.getImmediateDominator(v));
+            }
+
+            long retained = 0;
+            for (int w = 0; w < n; w++) {
+                if (dom[w].get(v)) {
+                    retained += g.getShallowSize(w);
+                }
+            }
+            assertEquals("retained size of " + v, retained, tree.getRetainedSize(v));
+        }
+    }
+
+    private static BitSet[] naiveDominators(RandomGraph g) {
+        int n = g.size();
+        List<List<Integer>> preds = new ArrayList<List<Integer>>();
+        for (int v = 0; v < n; v++) {
+            preds.add(new ArrayList<Integer>());
+        }
+        for (int v = 0; v < n; v++) {
+            for (int e = g.getEdgeStart(v); e < g.getEdgeEnd(v); e++) {
+                preds.get(g.getEdge(e)).add(v);
+            }
+        }
+
+        BitSet[] dom = new BitSet[n];
+        dom[0] = new BitSet(n);
+        dom[0].set(0);
+        for (int v = 1; v < n; v++) {
+            dom[v] = new BitSet(n);
+            dom[v].set(0, n);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int v = 1; v < n; v++) {
+                BitSet d = new BitSet(n);
+                d.set(0, n);
+                for (int p : preds.get(v)) {
+                    d.and(dom[p]);
+                }
+                d.set(v);
+                if (!d.equals(dom[v])) {
+                    dom[v] = d;
+                    changed = true;
+                }
+            }
+        }
+        return dom;
+    }
+
+    /**
+     * Synthetic graph: node 0 is the root, and every node is reachable
+     * through its BFS parent, which has a smaller id.
+     */
+    static class RandomGraph extends ObjectGraphIndex {
+        private final int[] parents;
+        private final long[] sizes;
+        private final int[] edgeStarts;
+        private final int[] edges;
+
+        RandomGraph(Random r, int n, int extraEdges) {
+            List<List<Integer>> succs = new ArrayList<List<Integer>>();
+            for (int v = 0; v < n; v++) {
+                succs.add(new ArrayList<Integer>());
+            }
+            for (int v = 1; v < n; v++) {
+                succs.get(r.nextInt(v)).add(v);
+            }
+            for (int i = 0; i < extraEdges; i++) {
+                succs.get(r.nextInt(n)).add(r.nextInt(n));
+            }
+
+            sizes = new long[n];
+            for (int v = 0; v < n; v++) {
+                sizes[v] = 8 * (2 + r.nextInt(10));
+            }
+
+            int[][] arr = new int[n][];
+            for (int v = 0; v < n; v++) {
+                List<Integer> s = succs.get(v);
+                arr[v] = new int[s.size()];
+                for (int i = 0; i < s.size(); i++) {
+                    arr[v][i] = s.get(i);
+                }
+            }
+            edgeStarts = new int[n + 1];
+            edges = flatten(arr, edgeStarts);
+            parents = bfsParents(n);
+        }
+
+        RandomGraph(int[][] succs, long size) {
+            int n = succs.length;
+            sizes = new long[n];
+            for (int v = 0; v < n; v++) {
+                sizes[v] = size;
+            }
+            edgeStarts = new int[n + 1];
+            edges = flatten(succs, edgeStarts);
+            parents = bfsParents(n);
+        }
+
+        private static int[] flatten(int[][] succs, int[] starts) {
+            int count = 0;
+            for (int[] s : succs) {
+                count += s.length;
+            }
+            int[] edges = new int[count];
+            int idx = 0;
+            for (int v = 0; v < succs.length; v++) {
+                starts[v] = idx;
+                for (int w : succs[v]) {
+                    edges[idx++] = w;
+                }
+            }
+            starts[succs.length] = idx;
+            return edges;
+        }
+
+        private int[] bfsParents(int n) {
+            int[] parents = new int[n];
+            for (int v = 0; v < n; v++) {
+                parents[v] = -2;
+            }
+            parents[0] = -1;
+            int[] queue = new int[n];
+            int head = 0, tail = 0;
+            queue[tail++] = 0;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int e = edgeStarts[v]; e < edgeStarts[v + 1]; e++) {
+                    int w = edges[e];
+                    if (parents[w] == -2) {
+                        parents[w] = v;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            return parents;
+        }
+
+        @Override
+        public int size() {
+            return sizes.length;
+        }
+
+        @Override
+        public String getClassName(int id) {
+            return "Node";
+        }
+
+        @Override
+        public long getShallowSize(int id) {
+            return sizes[id];
+        }
+
+        @Override
+        public int getParent(int id) {
+            return parents[id];
+        }
+
+        @Override
+        public int getParentField(int id) {
+            return 0;
+        }
+
+        @Override
+        public String getFieldName(int fieldId) {
+            return "next";
+        }
+
+        @Override
+        public int getFieldCount() {
+            return 1;
+        }
+
+        @Override
+        public int getEdgeStart(int id) {
+            return edgeStarts[id];
+        }
+
+        @Override
+        public int getEdgeEnd(int id) {
+            return edgeStarts[id + 1];
+        }
+
+        @Override
+        public int getEdge(int idx) {
+            return edges[idx];
+        }
+
+        @Override
+        public int getEdgeCount() {
+            return edges.length;
+        }
+    }
+
+}
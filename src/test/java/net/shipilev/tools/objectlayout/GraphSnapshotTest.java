@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the snapshots and reads them back, against the in-memory index of the same graph.
+ */
+public class GraphSnapshotTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("snapshot", ".jols");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static Map<String, Object> graph() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        List<Object> shared = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            List<Object> value = new ArrayList<Object>();
+            value.add(new byte[i % 17]);
+            value.add(shared);
+            map.put("k" + i, value);
+        }
+        shared.add(map);
+        return map;
+    }
+
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> root = graph();
+        long before = System.currentTimeMillis();
+        GraphSnapshot.write(file, ObjectFilters.acceptAll(), root);
+        long after = System.currentTimeMillis();
+
+        IndexedObjectGraph expected = new IndexedObjectGraph(root);
+        GraphSnapshot snapshot = GraphSnapshot.open(file);
+        try {
+            assertEquals(expected.size(), snapshot.size());
+            assertEquals(expected.getEdgeCount(), snapshot.getEdgeCount());
+            for (int id = 0; id < expected.size(); id++) {
+                assertEquals(expected.getClassName(id), snapshot.getClassName(id));
+                assertEquals(expected.getShallowSize(id), snapshot.getShallowSize(id));
+                assertEquals(expected.getParent(id), snapshot.getParent(id));
+                assertEquals(expected.getPath(id), snapshot.getPath(id));
+                assertEquals(expected.getEdgeStart(id), snapshot.getEdgeStart(id));
+                assertEquals(expected.getEdgeEnd(id), snapshot.getEdgeEnd(id));
+            }
+            for (int e = 0; e < expected.getEdgeCount(); e++) {
+                assertEquals(expected.getEdge(e), snapshot.getEdge(e));
+            }
+
+            DominatorTree live = new DominatorTree(expected);
+            DominatorTree saved = new DominatorTree(snapshot);
+            for (int id = 0; id < expected.size(); id++) {
+                assertEquals(live.getRetainedSize(id), saved.getRetainedSize(id));
+            }
+
+            long timestamp = snapshot.getHistogram().getTimestamp();
+            assertTrue(before <= timestamp && timestamp <= after);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    public void testSeveralRoots() throws IOException {
+        Object[] roots = {new Object[]{"a"}, new Object[]{"b"}};
+        GraphSnapshot.write(file, ObjectFilters.acceptAll(), roots);
+
+        GraphSnapshot snapshot = GraphSnapshot.open(file);
+        try {
+            assertEquals(GraphSnapshot.ROOTS, snapshot.getClassName(0));
+            assertEquals(2, snapshot.getEdgeEnd(0) - snapshot.getEdgeStart(0));
+            assertEquals("root[]", snapshot.getPath(1));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    public void testNotASnapshot() throws IOException {
+        try {
+            GraphSnapshot.open(file);
+            fail("Should not open the empty file");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the per-class join of the histograms, and the ranking by the size change.
+ */
+public class HistogramDiffTest extends TestCase {
+
+    private static int find(HistogramDiff diff, String name) {
+        for (int i = 0; i < diff.size(); i++) {
+            if (diff.getName(i).equals(name)) return i;
+        }
+        fail("No class " + name);
+        return -1;
+    }
+
+    public void testJoin() {
+        ClassHistogram before = new ClassHistogram(
+                new String[]{"A", "B", "C"}, new long[]{10, 5, 1}, new long[]{100, 50, 16}, 1000);
+        ClassHistogram after = new ClassHistogram(
+                new String[]{"C", "A", "D"}, new long[]{1, 30, 2}, new long[]{16, 300, 64}, 3000);
+        HistogramDiff diff = new HistogramDiff(before, after);
+
+        assertEquals(4, diff.size());
+        assertEquals(2000, diff.getInterval());
+
+        int a = find(diff, "A");
+        assertEquals(20, diff.getCountDelta(a));
+        assertEquals(200, diff.getSizeDelta(a));
+        assertEquals(100.0, diff.getGrowthRate(a), 1e-9);
+        assertFalse(diff.isNew(a));
+
+        int b = find(diff, "B");
+        assertEquals(-5, diff.getCountDelta(b));
+        assertEquals(0, diff.getSizeAfter(b));
+
+        int d = find(diff, "D");
+        assertTrue(diff.isNew(d));
+        assertEquals(0, diff.getSizeBefore(d));
+        assertEquals(64, diff.getSizeDelta(d));
+
+        assertEquals(0, diff.getSizeDelta(find(diff, "C")));
+
+        // by the absolute size change: A +200, D +64, B -50
+        int[] top = diff.getTop(3);
+        assertEquals(3, top.length);
+        assertEquals("A", diff.getName(top[0]));
+        assertEquals("D", diff.getName(top[1]));
+        assertEquals("B", diff.getName(top[2]));
+    }
+
+    public void testSameTime() {
+        ClassHistogram h = new ClassHistogram(new String[]{"A"}, new long[]{1}, new long[]{16}, 1000);
+        HistogramDiff diff = new HistogramDiff(h, h);
+        assertEquals(0, diff.getInterval());
+        assertEquals(0.0, diff.getGrowthRate(0), 0);
+    }
+
+    public void testFootprints() throws Exception {
+        List<Object> list = new ArrayList<Object>();
+        Footprint before = ObjectGraph.footprint(ObjectFilters.acceptAll(), list);
+        for (int i = 0; i < 100; i++) {
+            list.add(new byte[8]);
+        }
+        Footprint after = ObjectGraph.footprint(ObjectFilters.acceptAll(), list);
+        HistogramDiff diff = new HistogramDiff(before, after);
+
+        int bytes = find(diff, byte[].class.getName());
+        assertTrue(diff.isNew(bytes));
+        assertEquals(100, diff.getCountDelta(bytes));
+        assertEquals(100 * ObjectLayout.sizeOf(new byte[8]), diff.getSizeDelta(bytes));
+        assertEquals(after.getTotalSize() - before.getTotalSize(), sum(diff));
+    }
+
+    private static long sum(HistogramDiff diff) {
+        long sum = 0;
+        for (int i = 0; i < diff.size(); i++) {
+            sum += diff.getSizeDelta(i);
+        }
+        return sum;
+    }
+
+}
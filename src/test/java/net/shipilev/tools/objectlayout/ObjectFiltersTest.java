@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks what the default filters leave out of the walks.
+ */
+public class ObjectFiltersTest extends TestCase {
+
+    static class Holder {
+        final Object own = new Object();
+        final TimeUnit unit = TimeUnit.SECONDS;
+        final List<Object> empty = Collections.emptyList();
+        final Thread thread = Thread.currentThread();
+        final Class<?> klass = Holder.class;
+    }
+
+    static class Nested {
+        // the singleton in the enclosing class of its class
+        static final Nested INSTANCE = new Nested();
+    }
+
+    public void testDefaults() {
+        ObjectFilter filter = ObjectFilters.defaults();
+        assertTrue(filter.accept(new Object()));
+        assertTrue(filter.accept(new ArrayList<Object>()));
+        assertTrue(filter.accept(new Nested()));
+
+        assertFalse(filter.accept(TimeUnit.SECONDS));
+        assertFalse(filter.accept(Boolean.TRUE));
+        assertFalse(filter.accept(Collections.emptyList()));
+        assertFalse(filter.accept(Nested.INSTANCE));
+        assertFalse(filter.accept(Thread.currentThread()));
+        assertFalse(filter.accept(String.class));
+    }
+
+    public void testWalkSkipsExcluded() {
+        Holder holder = new Holder();
+        Footprint footprint = ObjectGraph.footprint(ObjectFilters.defaults(), holder);
+        // the holder, and its own object
+        assertEquals(2, footprint.getTotalCount());
+        assertEquals(1, footprint.getClassCounts().count(Object.class));
+    }
+
+    public void testRootsAlwaysTaken() {
+        Footprint footprint = ObjectGraph.footprint(ObjectFilters.defaults(), TimeUnit.SECONDS, Boolean.TRUE);
+        assertEquals(1, footprint.getClassCounts().count(Boolean.class));
+        assertEquals(1, footprint.getClassCounts().count(TimeUnit.SECONDS.getClass()));
+    }
+
+    public void testAllOf() {
+        ObjectFilter filter = ObjectFilters.allOf(ObjectFilters.acceptAll(),
+                ObjectFilters.excludeInstancesOf(Number.class));
+        assertTrue(filter.accept("s"));
+        assertFalse(filter.accept(1L));
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout;
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the walks bounded by {@link WalkLimits}, and the partial totals they publish.
+ */
+public class ObjectGraphWalkerTest extends TestCase {
+
+    private static List<Object> chain(int length) {
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < length; i++) {
+            list.add(new Object[]{new Object()});
+        }
+        return list;
+    }
+
+    public void testHistogramAfterSetLimits() {
+        ObjectGraphWalker walker = new ObjectGraphWalker(new Object[]{chain(100)},
+                ObjectFilters.acceptAll(), new IdentityVisitedSet());
+        long all = walker.getClassCounts().count(Object.class);
+        assertEquals(100, all);
+
+        walker.setLimits(new WalkLimits().setMaxNodes(50));
+        assertTrue(walker.getClassCounts().count(Object.class) < all);
+        assertNotNull(walker.getLimitReached());
+
+        walker.setLimits(null);
+        assertEquals(all, walker.getClassCounts().count(Object.class));
+        assertNull(walker.getLimitReached());
+    }
+
+    private static Footprint footprint(WalkLimits limits, Object root) {
+        return ObjectGraph.footprint(ObjectFilters.acceptAll(), limits, root);
+    }
+
+    public void testMaxNodes() {
+        Footprint footprint = footprint(new WalkLimits().setMaxNodes(50), chain(100));
+        assertEquals(50, footprint.getTotalCount());
+        assertEquals("max nodes (50)", footprint.getLimitReached());
+        assertTrue(footprint.isTruncated());
+    }
+
+    public void testMaxBytes() {
+        Footprint all = footprint(null, chain(100));
+        Footprint footprint = footprint(new WalkLimits().setMaxBytes(all.getTotalSize() / 2), chain(100));
+        assertTrue(footprint.getTotalSize() >= all.getTotalSize() / 2);
+        assertTrue(footprint.getTotalSize() < all.getTotalSize());
+        assertEquals("max bytes (" + all.getTotalSize() / 2 + ")", footprint.getLimitReached());
+    }
+
+    public void testMaxDepth() {
+        // list, elementData, the Object[] wrappers, the Objects
+        assertEquals(1 + 1 + 100, footprint(new WalkLimits().setMaxDepth(2), chain(100)).getTotalCount());
+        assertEquals(1, footprint(new WalkLimits().setMaxDepth(0), chain(100)).getTotalCount());
+        assertEquals(1 + 1 + 100 + 100, footprint(new WalkLimits(), chain(100)).getTotalCount());
+    }
+
+    public void testPruned() {
+        Footprint fields = footprint(new WalkLimits().pruneField("elementData"), chain(100));
+        assertEquals(1, fields.getTotalCount());
+        assertFalse(fields.isTruncated());
+
+        Footprint classes = footprint(new WalkLimits().pruneClass("java.lang.Object"), chain(100));
+        assertEquals(1, classes.getTotalCount());
+
+        Footprint elements = footprint(new WalkLimits().pruneField("[]"), chain(100));
+        assertEquals(2, elements.getTotalCount());
+    }
+
+    public void testSubtreeBudget() {
+        List<Object> big = chain(1000);
+        List<Object> root = new ArrayList<Object>();
+        root.add(big);
+        root.add(new Object[]{new Object()});
+
+        // root, elementData, then the subtrees at depth 2
+        WalkLimits limits = new WalkLimits().setSubtreeBudget(1024, 2);
+        ObjectGraphWalker walker = new ObjectGraphWalker(new Object[]{root}, ObjectFilters.acceptAll(), new IdentityVisitedSet());
+        walker.setLimits(limits);
+        Footprint footprint = new Footprint(walker.getClassCounts(), walker.getClassSizes(),
+                walker.getLimitReached(), walker.getTruncations());
+
+        assertEquals(1, footprint.getTruncations().size());
+        WalkLimits.Truncation t = footprint.getTruncations().get(0);
+        assertEquals("root.elementData[]", t.getPath());
+        assertEquals(ArrayList.class.getName(), t.getClassName());
+        assertTrue(t.getSize() > 1024);
+        assertNull(footprint.getLimitReached());
+        assertTrue(footprint.isTruncated());
+
+        // the footprint keeps its truncations over the next walks
+        walker.setLimits(null);
+        walker.getClassCounts();
+        assertTrue(walker.getTruncations().isEmpty());
+        assertEquals(1, footprint.getTruncations().size());
+    }
+
+    public void testMonitorPublishesPartialTotals() {
+        FootprintMonitor monitor = new FootprintMonitor(MBeanServerFactory.newMBeanServer());
+        List<Object> root = chain(100);
+        monitor.setFilter(ObjectFilters.acceptAll());
+        monitor.register("chain", root);
+
+        monitor.setLimits(new WalkLimits().setMaxNodes(50));
+        monitor.runCycle();
+        MonitoredFootprintMBean bean = monitor.get("chain");
+        assertEquals(50, bean.getObjectCount());
+        assertTrue(bean.getTotalSize() > 0);
+        assertTrue(bean.isTruncated());
+        assertTrue(bean.getLastUpdated() > 0);
+
+        monitor.setLimits(null);
+        monitor.runCycle();
+        assertEquals(202, bean.getObjectCount());
+        assertFalse(bean.isTruncated());
+
+        monitor.unregister("chain");
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Java Object Layout Dumper
+ * %%
+ * Copyright (C) 2012 - 2013 Aleksey Shipilev
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.shipilev.tools.objectlayout.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the open-addressing counters against the boxed map, over the table growth.
+ */
+public class MultisetTest extends TestCase {
+
+    /**
+     * The key with the given hash code, to pile up the collisions.
+     */
+    private static class Key {
+        private final int id;
+        private final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Key) && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public void testAgainstMap() {
+        Random r = new Random(42);
+        Multiset<Key> set = new Multiset<Key>();
+        Map<Key, Long> expected = new HashMap<Key, Long>();
+        for (int i = 0; i < 100000; i++) {
+            int id = r.nextInt(5000);
+            // every 8 keys share the hash code
+            Key key = new Key(id, id / 8);
+            long count = r.nextInt(100);
+            set.add(key, count);
+            Long old = expected.get(key);
+            expected.put(key, (old == null ? 0 : old) + count);
+        }
+
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected.keySet(), new HashSet<Key>(set.keys()));
+        for (Map.Entry<Key, Long> e : expected.entrySet()) {
+            assertEquals((long) e.getValue(), set.count(e.getKey()));
+        }
+        assertEquals(0, set.count(new Key(-1, 0)));
+    }
+
+    public void testLongCounts() {
+        Multiset<String> set = new Multiset<String>();
+        set.add("a", Integer.MAX_VALUE);
+        set.add("a", Integer.MAX_VALUE);
+        set.add("a");
+        assertEquals(2L * Integer.MAX_VALUE + 1, set.count("a"));
+    }
+
+    public void testMerge() {
+        Multiset<String> a = new Multiset<String>();
+        Multiset<String> b = new Multiset<String>();
+        for (int i = 0; i < 1000; i++) {
+            a.add("k" + i, i);
+            b.add("k" + (i + 500), 1);
+        }
+        a.merge(b);
+
+        assertEquals(1500, a.size());
+        assertEquals(10, a.count("k10"));
+        assertEquals(600 + 1, a.count("k600"));
+        assertEquals(1, a.count("k1400"));
+    }
+
+}